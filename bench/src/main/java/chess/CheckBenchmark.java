@@ -0,0 +1,47 @@
+package chess;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Check.isInCheck and CheckMate.isInCheckMate, asked the way ProcessMove asks
+ * them after white has moved. Every fixture has black in check, so mate
+ * detection always does its full search for an escape.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CheckBenchmark {
+
+    @Param({ "openingCheck", "openingMate", "endgameCheck", "endgameMate" })
+    public String fixture;
+
+    @Setup
+    public void setUp() {
+        Fixtures.load(Fixtures.fen(fixture));
+    }
+
+    @Benchmark
+    public boolean isInCheck() {
+        return Check.isInCheck(Chess.Player.white, Chess.position);
+    }
+
+    @Benchmark
+    public boolean isInCheckMate() {
+        return CheckMate.isInCheckMate(Chess.Player.white, Chess.position);
+    }
+}
@@ -0,0 +1,56 @@
+package chess;
+
+/**
+ * Positions and move sequences shared by the benchmarks.
+ *
+ * The crowded opening positions and the sparse endgames are kept apart on
+ * purpose: most of the rule checks scan every piece against every other piece,
+ * so the two ends of a game behave very differently.
+ */
+final class Fixtures {
+
+    static final String START = "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1";
+
+    /** Middle game with every kind of move available to white. */
+    static final String MIDDLEGAME = "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1";
+
+    /** Black to move and in check from a bishop, nearly every piece still on. */
+    static final String OPENING_CHECK = "rnbqkbnr/ppp2ppp/3p4/1B2p3/4P3/8/PPPP1PPP/RNBQK1NR b KQkq - 1 3";
+
+    /** Black to move and checkmated, crowded board. */
+    static final String OPENING_MATE = "r1bqkb1r/pppp1Qpp/2n2n2/4p3/2B1P3/8/PPPP1PPP/RNB1K1NR b KQkq - 0 4";
+
+    /** Black to move and in check from a rook, three pieces on the board. */
+    static final String ENDGAME_CHECK = "4k3/8/8/8/8/8/8/4R1K1 b - - 0 1";
+
+    /** Black to move and checkmated by king and rook. */
+    static final String ENDGAME_MATE = "R5k1/8/6K1/8/8/8/8/8 b - - 0 1";
+
+    /** A Ruy Lopez main line, the kind of opening our games actually start with. */
+    static final String[] RUY_LOPEZ = {
+        "e2 e4", "e7 e5", "g1 f3", "b8 c6", "f1 b5", "a7 a6", "b5 a4", "g8 f6",
+        "e1 g1", "f8 e7", "f1 e1", "b7 b5", "a4 b3", "d7 d6", "c2 c3", "e8 g8",
+        "h2 h3", "c6 a5", "b3 c2", "c7 c5", "d2 d4", "d8 c7",
+    };
+
+    static String fen(String name) {
+        switch (name) {
+            case "start": return START;
+            case "middlegame": return MIDDLEGAME;
+            case "openingCheck": return OPENING_CHECK;
+            case "openingMate": return OPENING_MATE;
+            case "endgameCheck": return ENDGAME_CHECK;
+            case "endgameMate": return ENDGAME_MATE;
+            default:
+                throw new IllegalArgumentException("no fixture called " + name);
+        }
+    }
+
+    /** Loads a fixture into the static game that Chess.play works on. */
+    static void load(String fen) {
+        Fen.load(Chess.position, fen);
+    }
+
+    private Fixtures() {
+    }
+}
@@ -0,0 +1,53 @@
+package chess;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * LegalCheck.isLegalMove for one legal move per piece type, all from the
+ * same middle game position.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LegalCheckBenchmark {
+
+    @Param({ "pawn", "knight", "bishop", "rook", "queen", "king" })
+    public String piece;
+
+    private Position board;
+    private int move;
+
+    @Setup
+    public void setUp() {
+        board = new Position();
+        Fen.load(board, Fixtures.MIDDLEGAME);
+        switch (piece) {
+            case "pawn": move = Move.parse("d5 e6"); break;
+            case "knight": move = Move.parse("e5 f7"); break;
+            case "bishop": move = Move.parse("e2 a6"); break;
+            case "rook": move = Move.parse("h1 f1"); break;
+            case "queen": move = Move.parse("f3 f6"); break;
+            default: move = Move.parse("e1 d1"); break;
+        }
+    }
+
+    @Benchmark
+    public boolean isLegalMove() {
+        return LegalCheck.isLegalMove(move, board);
+    }
+}
@@ -0,0 +1,53 @@
+package chess;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Chess.play end to end: input checks, legality, the move itself, check and
+ * mate detection, and building the ReturnPlay piece list. One operation is a
+ * whole opening line, so divide by the line length for the cost per move.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PlayBenchmark {
+
+    private final Position start = new Position();
+    private final Position middlegame = new Position();
+
+    @Setup
+    public void setUp() {
+        Fen.load(start, Fixtures.START);
+        Fen.load(middlegame, Fixtures.MIDDLEGAME);
+    }
+
+    @Benchmark
+    public void ruyLopez(Blackhole bh) {
+        Chess.position.copyFrom(start);
+        for (String move : Fixtures.RUY_LOPEZ) {
+            bh.consume(Chess.play(move));
+        }
+    }
+
+    @Benchmark
+    public ReturnPlay illegalMove() {
+        // rejected moves still pay for parsing and the legality check
+        Chess.position.copyFrom(middlegame);
+        return Chess.play("e1 e3");
+    }
+}
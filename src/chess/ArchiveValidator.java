@@ -0,0 +1,230 @@
+package chess;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Validates a game archive in the BatchReplay format on every core.
+ *
+ * The work is done in three passes:
+ *
+ *   1. one sequential scan over the memory-mapped file notes the byte offset
+ *      where each game starts (a non-blank line right after a blank one);
+ *   2. a fork-join pool replays the games, splitting the list of games in
+ *      halves until a piece is small enough, each worker thread using its
+ *      own BatchReplay engine and writing each game's packed result into its
+ *      slot of a shared array;
+ *   3. the results are written out in archive order.
+ *
+ * Games never depend on each other, so the output is exactly what
+ * BatchReplay would print for the same file, whatever the number of threads.
+ * The scan only looks for newlines and costs next to nothing beside the
+ * replay, which is why the replay scales with the cores.
+ *
+ * Usage:
+ *   java chess.ArchiveValidator file [-o outfile] [-t threads]
+ */
+public class ArchiveValidator {
+
+    /** Games replayed by one fork-join leaf. */
+    static final int GAMES_PER_TASK = 64;
+
+    private static final long WINDOW = 1L << 30; // how much of the file pass 1 maps at a time
+
+    // flags next to the packed result, which only uses the low 48 bits
+    private static final long NO_GAME = 1L << 62; // only comment lines, nothing to report
+    private static final long QUIT = 1L << 61;    // the stream ends with this game
+
+    private static final ThreadLocal<BatchReplay> ENGINE = ThreadLocal.withInitial(BatchReplay::new);
+
+    public static void main(String[] args) throws IOException {
+        String input = null;
+        String output = null;
+        int threads = Runtime.getRuntime().availableProcessors();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-o") && i + 1 < args.length) {
+                output = args[++i];
+            } else if (args[i].equals("-t") && i + 1 < args.length) {
+                threads = Integer.parseInt(args[++i]);
+            } else {
+                input = args[i];
+            }
+        }
+        if (input == null) {
+            System.err.println("usage: java chess.ArchiveValidator file [-o outfile] [-t threads]");
+            System.exit(2);
+        }
+
+        Writer out = output == null
+                ? new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 1 << 16)
+                : Files.newBufferedWriter(Paths.get(output), StandardCharsets.UTF_8);
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try (out) {
+            System.err.println(validate(Paths.get(input), out, pool));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Replays every game in the file and writes one result line per game,
+     * in the order the games appear.
+     *
+     * @return a one line summary with games and moves per second
+     */
+    public static String validate(Path file, Appendable out, ForkJoinPool pool) throws IOException {
+        long start = System.nanoTime();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long[] starts = findGames(channel, size);
+            long[] results = new long[starts.length];
+            pool.invoke(new Replay(channel, size, starts, results, 0, starts.length));
+
+            long games = 0;
+            long moves = 0;
+            long illegalGames = 0;
+            for (long result : results) {
+                if ((result & NO_GAME) == 0) {
+                    long packed = result & ~QUIT;
+                    games++;
+                    moves += BatchReplay.played(packed);
+                    if (BatchReplay.firstIllegal(packed) > 0) {
+                        illegalGames++;
+                    }
+                    BatchReplay.writeResult(out, games, packed);
+                }
+                if ((result & QUIT) != 0) {
+                    break; // BatchReplay stops reading here too
+                }
+            }
+
+            long millis = Math.max(1, (System.nanoTime() - start) / 1_000_000);
+            return "games " + games + ", moves " + moves + ", games with an illegal move " + illegalGames
+                    + ", " + millis + " ms, " + (games * 1000 / millis) + " games/s, "
+                    + (moves * 1000 / millis) + " moves/s, " + pool.getParallelism() + " threads";
+        }
+    }
+
+    /** Pass 1: the offset of the first byte of every run of non-blank lines. */
+    static long[] findGames(FileChannel channel, long size) throws IOException {
+        long[] starts = new long[1024];
+        int count = 0;
+        boolean previousBlank = true;
+        boolean lineHasText = false;
+        long lineStart = 0;
+
+        for (long base = 0; base < size; base += WINDOW) {
+            MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, base, Math.min(WINDOW, size - base));
+            int limit = window.limit();
+            for (int i = 0; i < limit; i++) {
+                byte b = window.get(i);
+                if (b == '\n') {
+                    if (lineHasText && previousBlank) {
+                        if (count == starts.length) {
+                            starts = Arrays.copyOf(starts, count * 2);
+                        }
+                        starts[count++] = lineStart;
+                    }
+                    previousBlank = !lineHasText;
+                    lineHasText = false;
+                    lineStart = base + i + 1;
+                } else if (b != ' ' && b != '\t' && b != '\r') {
+                    lineHasText = true;
+                }
+            }
+        }
+        if (lineHasText && previousBlank) { // last line without a newline
+            starts = Arrays.copyOf(starts, count + 1);
+            starts[count++] = lineStart;
+        }
+        return Arrays.copyOf(starts, count);
+    }
+
+    /** Pass 2: replays games [from, to) and stores their results. */
+    private static final class Replay extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final FileChannel channel;
+        private final long size;
+        private final long[] starts;
+        private final long[] results;
+        private final int from;
+        private final int to;
+
+        Replay(FileChannel channel, long size, long[] starts, long[] results, int from, int to) {
+            this.channel = channel;
+            this.size = size;
+            this.starts = starts;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > GAMES_PER_TASK) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new Replay(channel, size, starts, results, from, middle),
+                        new Replay(channel, size, starts, results, middle, to));
+                return;
+            }
+            if (from == to) {
+                return;
+            }
+            long begin = starts[from];
+            long end = to < starts.length ? starts[to] : size;
+            try {
+                MappedByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, begin, end - begin);
+                BatchReplay engine = ENGINE.get();
+                for (int game = from; game < to; game++) {
+                    int gameEnd = (int) ((game + 1 < to ? starts[game + 1] : end) - begin);
+                    results[game] = replay(engine, bytes, (int) (starts[game] - begin), gameEnd);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private static long replay(BatchReplay engine, MappedByteBuffer bytes, int from, int to) {
+            byte[] line = new byte[64];
+            int pos = from;
+            boolean quit = false;
+            while (pos < to) {
+                int length = 0;
+                while (pos < to && bytes.get(pos) != '\n') {
+                    if (length == line.length) {
+                        line = Arrays.copyOf(line, length * 2);
+                    }
+                    line[length++] = bytes.get(pos++);
+                }
+                pos++; // the newline
+                if (length > 0 && line[length - 1] == '\r') {
+                    length--; // readLine drops it too
+                }
+                String text = new String(line, 0, length, StandardCharsets.UTF_8);
+                if (text.equals("quit")) {
+                    quit = true;
+                    break;
+                }
+                if (!text.isBlank() && text.charAt(0) != '#') {
+                    engine.play(text);
+                }
+            }
+            long result = engine.inGame() ? engine.endGame() : NO_GAME;
+            return quit ? result | QUIT : result;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package chess;
+
+/**
+ * Precomputed attack sets, as bitboards in the same a1 = 0 square order as
+ * Position.
+ *
+ * Knights, kings and pawns attack the same squares wherever the other pieces
+ * are, so their sets are worked out once per square. Rooks, bishops and
+ * queens use one ray per direction per square: the first piece on the ray is
+ * found with a single bit scan and everything past it is masked off with
+ * that piece's own ray, so a slider costs a handful of lookups and no loop
+ * over squares.
+ */
+public final class Attacks {
+
+    // ray directions; the first four go towards higher squares, the last four towards lower ones
+    private static final int NORTH = 0, EAST = 1, NORTH_EAST = 2, NORTH_WEST = 3;
+    private static final int SOUTH = 4, WEST = 5, SOUTH_WEST = 6, SOUTH_EAST = 7;
+    private static final int[] DIR_FILE = { 0, 1, 1, -1, 0, -1, -1, 1 };
+    private static final int[] DIR_RANK = { 1, 0, 1, 1, -1, 0, -1, -1 };
+
+    private static final long[] KNIGHT = new long[64];
+    private static final long[] KING = new long[64];
+    private static final long[][] PAWN = new long[2][64]; // squares a pawn of that colour attacks
+    private static final long[][] RAYS = new long[8][64];
+    private static final long[][] BETWEEN = new long[64][64];
+
+    static {
+        int[] knightFile = { 1, 2, 2, 1, -1, -2, -2, -1 };
+        int[] knightRank = { 2, 1, -1, -2, -2, -1, 1, 2 };
+        for (int sq = 0; sq < 64; sq++) {
+            int file = Position.fileOf(sq);
+            int rank = Position.rankOf(sq);
+            for (int i = 0; i < 8; i++) {
+                KNIGHT[sq] |= bit(file + knightFile[i], rank + knightRank[i]);
+                KING[sq] |= bit(file + DIR_FILE[i], rank + DIR_RANK[i]);
+            }
+            PAWN[Position.WHITE][sq] = bit(file - 1, rank + 1) | bit(file + 1, rank + 1);
+            PAWN[Position.BLACK][sq] = bit(file - 1, rank - 1) | bit(file + 1, rank - 1);
+
+            for (int d = 0; d < 8; d++) {
+                long between = 0L;
+                for (int f = file + DIR_FILE[d], r = rank + DIR_RANK[d]; onBoard(f, r); f += DIR_FILE[d], r += DIR_RANK[d]) {
+                    int to = Position.square(f, r);
+                    RAYS[d][sq] |= 1L << to;
+                    BETWEEN[sq][to] = between;
+                    between |= 1L << to;
+                }
+            }
+        }
+    }
+
+    private Attacks() {
+    }
+
+    private static boolean onBoard(int file, int rank) {
+        return file >= 0 && file <= 7 && rank >= 1 && rank <= 8;
+    }
+
+    private static long bit(int file, int rank) {
+        return onBoard(file, rank) ? 1L << Position.square(file, rank) : 0L;
+    }
+
+    public static long knight(int square) {
+        return KNIGHT[square];
+    }
+
+    public static long king(int square) {
+        return KING[square];
+    }
+
+    /** @return the squares a pawn of the given colour on the square attacks */
+    public static long pawn(int color, int square) {
+        return PAWN[color][square];
+    }
+
+    public static long rook(int square, long occupied) {
+        return ray(NORTH, square, occupied) | ray(EAST, square, occupied)
+                | ray(SOUTH, square, occupied) | ray(WEST, square, occupied);
+    }
+
+    public static long bishop(int square, long occupied) {
+        return ray(NORTH_EAST, square, occupied) | ray(NORTH_WEST, square, occupied)
+                | ray(SOUTH_WEST, square, occupied) | ray(SOUTH_EAST, square, occupied);
+    }
+
+    public static long queen(int square, long occupied) {
+        return rook(square, occupied) | bishop(square, occupied);
+    }
+
+    /** @return the squares strictly between two squares on a line, or 0 if they are not on one */
+    public static long between(int from, int to) {
+        return BETWEEN[from][to];
+    }
+
+    // the ray up to and including the first piece on it
+    private static long ray(int direction, int square, long occupied) {
+        long ray = RAYS[direction][square];
+        long blockers = ray & occupied;
+        if (blockers == 0) {
+            return ray;
+        }
+        int first = direction < SOUTH
+                ? Long.numberOfTrailingZeros(blockers)
+                : 63 - Long.numberOfLeadingZeros(blockers);
+        return ray ^ RAYS[direction][first];
+    }
+}
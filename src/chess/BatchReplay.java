@@ -0,0 +1,224 @@
+package chess;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Locale;
+
+/**
+ * Headless replay of a stream of games, for checking an archive against the
+ * rules without printing boards.
+ *
+ * The stream uses the same lines PlayChess reads, one move per line, with a
+ * blank line between games. Lines starting with # are skipped and "quit"
+ * ends the stream. Once a game is over (checkmate, resignation or draw) the
+ * rest of its lines are ignored.
+ *
+ * Each game gets one line of output:
+ *
+ *   game outcome moves firstIllegal
+ *   12 CHECKMATE_WHITE_WINS 37 -
+ *   13 UNFINISHED 80 41
+ *
+ * where moves counts the moves played since the game last started (a reset
+ * starts it over) and firstIllegal is the line number within the game of
+ * the first move the rules rejected, or - if none was.
+ * A summary with games and moves per second goes to stderr at the end.
+ *
+ * With -b the legal moves of every game are also appended to a binary
+ * GameArchive, stored as 16-bit words or, with -e index, as one byte each.
+ *
+ * Usage:
+ *   java chess.PlayChess --batch [file|-] [-o outfile] [-b archive [-e word|index]]
+ */
+public class BatchReplay {
+
+    static final String UNFINISHED = "UNFINISHED";
+
+    private final Game game = new Game();
+
+    private long games;
+    private long moves;
+    private long illegalGames;
+
+    // the game being replayed
+    private int lines;
+    private int played;
+    private int firstIllegal;
+    private ReturnPlay.Message outcome;
+
+    private GameArchive.Writer archive; // null unless games are being archived
+
+    public static void main(String[] args) throws IOException {
+        String input = "-";
+        String output = null;
+        String archive = null;
+        int encoding = GameArchive.WORDS;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-o") && i + 1 < args.length) {
+                output = args[++i];
+            } else if (args[i].equals("-b") && i + 1 < args.length) {
+                archive = args[++i];
+            } else if (args[i].equals("-e") && i + 1 < args.length) {
+                encoding = args[++i].toLowerCase(Locale.ROOT).startsWith("index") ? GameArchive.INDICES : GameArchive.WORDS;
+            } else {
+                input = args[i];
+            }
+        }
+
+        BufferedReader in = input.equals("-")
+                ? new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8), 1 << 16)
+                : Files.newBufferedReader(Paths.get(input), StandardCharsets.UTF_8);
+        Writer out = output == null
+                ? new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 1 << 16)
+                : Files.newBufferedWriter(Paths.get(output), StandardCharsets.UTF_8);
+
+        BatchReplay replay = new BatchReplay();
+        GameArchive.Writer writer = archive == null ? null : new GameArchive.Writer(Paths.get(archive), encoding);
+        replay.archiveTo(writer);
+        long start = System.nanoTime();
+        try (in; out) {
+            replay.run(in, out);
+        } finally {
+            if (writer != null) {
+                writer.close();
+            }
+        }
+        System.err.println(replay.summary(System.nanoTime() - start));
+        if (writer != null) {
+            System.err.println("archived " + writer.gameCount() + " games, " + Files.size(Paths.get(archive)) + " bytes");
+        }
+    }
+
+    /** Appends every game this replays to the archive from now on, or stops archiving if it is null. */
+    void archiveTo(GameArchive.Writer archive) {
+        this.archive = archive;
+    }
+
+    /** Replays every game in the stream, writing one result line per game. */
+    public void run(BufferedReader in, Appendable out) throws IOException {
+        String line;
+        while ((line = in.readLine()) != null) {
+            if (line.equals("quit")) {
+                break;
+            }
+            if (line.isBlank()) {
+                if (lines > 0) {
+                    finishGame(out);
+                }
+            } else if (line.charAt(0) != '#') {
+                play(line);
+            }
+        }
+        if (lines > 0) {
+            finishGame(out);
+        }
+    }
+
+    /** Plays one line of the current game. */
+    void play(String line) {
+        lines++;
+        if (isOver(outcome)) {
+            return; // the game already ended, the rest is noise
+        }
+        int input = InputValidation.parse(line);
+        ReturnPlay.Message message = game.playInput(input);
+        if (message == ReturnPlay.Message.ILLEGAL_MOVE) {
+            if (firstIllegal == 0) {
+                firstIllegal = lines;
+            }
+            return;
+        }
+        if (input == InputValidation.RESET) {
+            played = 0; // the game starts over, and only what follows is archived
+        } else if (input != InputValidation.RESIGN) {
+            played++;
+        }
+        outcome = message;
+    }
+
+    /** Writes the current game's result line and gets ready for the next game. */
+    void finishGame(Appendable out) throws IOException {
+        if (archive != null) {
+            archive.append(game, isOver(outcome) ? outcome : null);
+        }
+        writeResult(out, games + 1, endGame());
+    }
+
+    /** @return true if a line other than a comment has been played since the last endGame */
+    boolean inGame() {
+        return lines > 0;
+    }
+
+    /**
+     * Ends the current game and gets ready for the next one.
+     *
+     * @return the game's result packed into a long (see outcome, played, firstIllegal)
+     */
+    long endGame() {
+        games++;
+        moves += played;
+        if (firstIllegal > 0) {
+            illegalGames++;
+        }
+        long result = ((long) (isOver(outcome) ? outcome.ordinal() + 1 : 0) << 40)
+                | ((long) played << 20) | firstIllegal;
+
+        game.start();
+        lines = 0;
+        played = 0;
+        firstIllegal = 0;
+        outcome = null;
+        return result;
+    }
+
+    // unpacking what endGame returns
+
+    static String outcome(long result) {
+        int outcome = (int) (result >>> 40);
+        return outcome == 0 ? UNFINISHED : ReturnPlay.Message.values()[outcome - 1].name();
+    }
+
+    static int played(long result) {
+        return (int) ((result >>> 20) & 0xFFFFF);
+    }
+
+    /** @return the line of the first illegal move, 0 if there was none */
+    static int firstIllegal(long result) {
+        return (int) (result & 0xFFFFF);
+    }
+
+    static void writeResult(Appendable out, long number, long result) throws IOException {
+        int illegal = firstIllegal(result);
+        out.append(Long.toString(number)).append(' ')
+                .append(outcome(result)).append(' ')
+                .append(Integer.toString(played(result))).append(' ')
+                .append(illegal > 0 ? Integer.toString(illegal) : "-").append('\n');
+    }
+
+    static boolean isOver(ReturnPlay.Message message) {
+        return message != null && message != ReturnPlay.Message.CHECK
+                && message != ReturnPlay.Message.ILLEGAL_MOVE;
+    }
+
+    public long games() {
+        return games;
+    }
+
+    public long moves() {
+        return moves;
+    }
+
+    String summary(long nanos) {
+        long millis = Math.max(1, nanos / 1_000_000);
+        return "games " + games + ", moves " + moves + ", games with an illegal move " + illegalGames
+                + ", " + millis + " ms, " + (games * 1000 / millis) + " games/s, "
+                + (moves * 1000 / millis) + " moves/s";
+    }
+}
@@ -1,6 +1,6 @@
 package chess;
 
-import java.util.ArrayList;
+import chess.ReturnPiece.PieceType;
 
 
 /**
@@ -30,75 +30,70 @@ import java.util.ArrayList;
 
 
 public class Castle {
+
+    private static final int KING_WHITE = 4;  // e1
+    private static final int KING_BLACK = 60; // e8
     
-    public static boolean matchesCastlePattern(String move) {
-        return move.equals("e1 g1") || move.equals("e1 c1") || move.equals("e8 g8") || move.equals("e8 c8");
+    public static boolean matchesCastlePattern(int move) {
+        // king on e1/e8 moving two files along its own rank
+        int from = Move.from(move);
+        int to = Move.to(move);
+        return (from == KING_WHITE || from == KING_BLACK) && (to == from + 2 || to == from - 2);
     }
     
-    public static boolean canCastle(String move, ArrayList<ReturnPiece> board) {
-        String kingPosition = move.substring(0, 2);
-        String endPosition = move.substring(3, 5);
+    public static boolean canCastle(int move, Position board) {
+        int kingPosition = Move.from(move);
+        int endPosition = Move.to(move);
         
-        ReturnPiece king = Chess.getPieceAt(kingPosition);        
-        if (Chess.hasMoved(king)) {
+        PieceType king = board.pieceAt(kingPosition);
+        if (king == null || board.hasMoved(kingPosition) || !matchesCastlePattern(move)) {
             return false;
         }
         
         // Check if the squares between the king and the rook are empty
-        if (endPosition.equals("g1") || endPosition.equals("g8")) {
-            if (Chess.getPieceAt("f" + king.pieceRank) != null || Chess.getPieceAt("g" + king.pieceRank) != null) {
+        if (endPosition > kingPosition) {
+            if (board.isOccupied(kingPosition + 1) || board.isOccupied(kingPosition + 2)) {
                 return false;
             }
-            if (Chess.hasMoved(Chess.getPieceAt("h" + king.pieceRank))) {
+            if (!board.isOccupied(kingPosition + 3) || board.hasMoved(kingPosition + 3)) {
                 return false;
             }
         }
         
-        if (endPosition.equals("c1") || endPosition.equals("c8")) {
-            if (Chess.getPieceAt("b" + king.pieceRank) != null || Chess.getPieceAt("c" + king.pieceRank) != null || Chess.getPieceAt("d" + king.pieceRank) != null) {
+        if (endPosition < kingPosition) {
+            if (board.isOccupied(kingPosition - 1) || board.isOccupied(kingPosition - 2) || board.isOccupied(kingPosition - 3)) {
                 return false;
             }
-            if (Chess.hasMoved(Chess.getPieceAt("a" + king.pieceRank))) {
+            if (!board.isOccupied(kingPosition - 4) || board.hasMoved(kingPosition - 4)) {
                 return false;
             }
         }
         
         // Check if the king is not currently in check and the squares it moves across are not attacked
-        if (Chess.isInCheck(kingPosition)) {
+        int opponent = Position.opponent(Position.colorOf(king));
+        if (board.isSquareAttackedBy(kingPosition, opponent)) {
             return false;
         }
         
-        String intermediateSquare;
-        if (endPosition.equals("g1") || endPosition.equals("g8")) {
-            intermediateSquare = "f" + king.pieceRank;
-        } else {
-            intermediateSquare = "d" + king.pieceRank;
-        }
+        // f1/f8 going kingside, d1/d8 going queenside
+        int intermediateSquare = (endPosition > kingPosition) ? kingPosition + 1 : kingPosition - 1;
 
 
         
-        if (Chess.isSquareAttacked(intermediateSquare, board, king)) {
+        // the square is empty, so this also sees pawns that cover it without being able to move there
+        if (board.isSquareAttackedBy(intermediateSquare, opponent)) {
             return false;
         }
         
         return true;
     }
     
-    public static void makeCastlingMove(String move) {
-        String kingPosition = move.substring(0, 2); //example: "a1 a2" -> "a1" "a2"
-        String endPosition = move.substring(3, 5);
-        
-        ReturnPiece king = Chess.getPieceAt(kingPosition);
-        ReturnPiece rook;
-        
-        if (endPosition.equals("g1") || endPosition.equals("g8")) {
-            rook = Chess.getPieceAt("h" + king.pieceRank);
-            Chess.movePiece(rook, "f" + king.pieceRank);
-        } else {
-            rook = Chess.getPieceAt("a" + king.pieceRank);
-            Chess.movePiece(rook, "d" + king.pieceRank);
-        }
+    public static void makeCastlingMove(int move, Position board) {
+        int kingPosition = Move.from(move);
+        int endPosition = Move.to(move);
         
-        Chess.movePiece(king, endPosition);
+        // the king moves two squares and the rook jumps over to the square it crosses,
+        // all in one move that can be taken back
+        board.makeMove(Move.of(kingPosition, endPosition, Move.PROMO_NONE, Move.FLAG_CASTLE));
     }
-}
\ No newline at end of file
+}
@@ -1,7 +1,5 @@
 package chess;
 
-import java.util.ArrayList;
-
 public class Check {
 
     /**
@@ -11,32 +9,11 @@ public class Check {
      * @param board  The current board state.
      * @return true if the king is in check, false otherwise.
      */
-    public static boolean isInCheck(Chess.Player currentPlayer, ArrayList<ReturnPiece> board) {
-        // Identify the opposing king's position.
-
-        String opposingKingPosition;
-        if (currentPlayer.equals(Chess.Player.white)) {
-            opposingKingPosition = Chess.getBlackKingPos();
-        }else{
-            opposingKingPosition = Chess.getWhiteKingPos();
-        }
-        
-        
-
-        // Check if any of the opponent's pieces can attack the king.
-        for (ReturnPiece piece : board) {
-            // If the piece is of the same color as the player's, ignore it.
-            if ((currentPlayer == Chess.Player.white && Chess.isWhitePiece(piece.pieceType))
-                    || (currentPlayer == Chess.Player.black && !Chess.isWhitePiece(piece.pieceType))) {
-                continue;
-            }
-
-            // Use the isSquareAttacked method to check if the piece can attack the king's position.
-            if (Chess.isSquareAttacked(opposingKingPosition, board, piece)) {
-                return true;  // The king is in check.
-            }
-        }
+    public static boolean isInCheck(Chess.Player currentPlayer, Position board) {
+        // The king to look at belongs to the other side.
+        int opponent = (currentPlayer == Chess.Player.white) ? Position.BLACK : Position.WHITE;
 
-        return false;  // The king is not in check.
+        // One attack-table lookup per piece type instead of a legality test per piece.
+        return board.isInCheck(opponent);
     }
 }
\ No newline at end of file
@@ -6,8 +6,6 @@
 package chess;
 
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Map;
 
 import chess.ReturnPiece.PieceFile;
 import chess.ReturnPiece.PieceType;
@@ -59,10 +57,10 @@ public class Chess {
 		white, black
 	} // DO NOT CHANGE THIS LINE
 
-	public static ArrayList<ReturnPiece> board; // create board
-	public static Player currentPlayer; // create the current player
-	public static Map<ReturnPiece, Boolean> hasMoved = new HashMap<>();
-	public static String lastMove = null;
+	/** The game behind the static play and start methods. */
+	public static final Game game = new Game();
+
+	public static final Position position = game.position(); // bitboards for the pieces on the board
 
 	/**
 	 * Plays the next move for whichever player has the turn.
@@ -74,204 +72,105 @@ public class Chess {
 	 *         details of
 	 *         the contents of the returned ReturnPlay instance.
 	 */
-	public static ReturnPlay play(String move) {   
-		            //move priority illegal move -> draw -> reset/resign -> checkmate/check 
-
-		ReturnPlay result = new ReturnPlay();
-		move = move.toLowerCase().trim();
-		
-		// Check if the input format is valid after checking for "resign, reset"
-		if (!InputValidation.inputCheck(move)) {
-			result.message = ReturnPlay.Message.ILLEGAL_MOVE;
-		}
-
-		// Process move
-		if(!move.equals("resign") && !move.equals("reset")){
-			result.message = ProcessMove.processMove(move);
-		}
-
-		// Handle draw after a legal move is made
-		if ((result.message != ReturnPlay.Message.ILLEGAL_MOVE) && (move.endsWith(" draw?" ))) {
-			result.message = ReturnPlay.Message.DRAW;
-		}
-
-		// check for reset and resign requests
-		if (move.equals("resign")) {
-			if (currentPlayer == Player.white) {
-				result.message = ReturnPlay.Message.RESIGN_BLACK_WINS;
-			} else {
-				result.message = ReturnPlay.Message.RESIGN_WHITE_WINS;
-			}
-		} else if (move.equals("reset")) {
-			start();
-		}
-
-		result.piecesOnBoard = new ArrayList<>(board); 
-		return result;
+	public static ReturnPlay play(String move) {
+		return game.play(move);
 	}
 
 	/**
 	 * This method should reset the game, and start from scratch.
 	 */
 	public static void start() {
+		game.start();
+		PlayChess.printBoard(position.toList());
+		System.out.println();
+	}
 
-		board = new ArrayList<>();
-		currentPlayer = Player.white;
-
-		//special pieces								file is letter, rank is number. Ex. pawn at a2 on board. a=file, 2=rank
-		addToBoard(PieceType.WR, PieceFile.a, 1); 
-		addToBoard(PieceType.WN, PieceFile.b, 1);
-		addToBoard(PieceType.WB, PieceFile.c, 1);
-		addToBoard(PieceType.WQ, PieceFile.d, 1);
-		addToBoard(PieceType.WK, PieceFile.e, 1);
-		addToBoard(PieceType.WB, PieceFile.f, 1);
-		addToBoard(PieceType.WN, PieceFile.g, 1);
-		addToBoard(PieceType.WR, PieceFile.h, 1);
-
-		addToBoard(PieceType.BR, PieceFile.a, 8);
-		addToBoard(PieceType.BN, PieceFile.b, 8);
-		addToBoard(PieceType.BB, PieceFile.c, 8);
-		addToBoard(PieceType.BQ, PieceFile.d, 8);
-		addToBoard(PieceType.BK, PieceFile.e, 8);
-		addToBoard(PieceType.BB, PieceFile.f, 8);
-		addToBoard(PieceType.BN, PieceFile.g, 8);
-		addToBoard(PieceType.BR, PieceFile.h, 8);
-
-		// pawns
-		for (PieceFile file : PieceFile.values()) {
-			addToBoard(PieceType.WP, file, 2);
-			addToBoard(PieceType.BP, file, 7);
-		}
+	/**
+	 * Sets the board up from a FEN string, e.g. to resume an analysis,
+	 * without replaying the game that led to it.
+	 */
+	public static void load(String fen) {
+		game.load(fen);
+	}
 
-		currentPlayer = Player.white;
-		PlayChess.printBoard(board);
-		System.out.println();
+	/** @return the current position in FEN */
+	public static String fen() {
+		return game.fen();
 	}
 
 	public static void addToBoard(PieceType type, PieceFile file, int rank) {
-		ReturnPiece piece = new ReturnPiece();
-		piece.pieceType = type;
-		piece.pieceFile = file;
-		piece.pieceRank = rank;
-		board.add(piece);
-		hasMoved.put(piece, false);
+		game.addToBoard(type, file, rank);
 	}
 
 	// helper methods
 
+	public static Player currentPlayer() {
+		return game.currentPlayer();
+	}
 
-	public static ReturnPiece getPieceAt(String position) {
-		for (ReturnPiece piece : board) {
-			String piecePosition = piece.pieceFile.name() + piece.pieceRank;
-			if (piecePosition.equals(position)) {
-				return piece;
-			}
-		}
-		return null;
+	public static PieceType getPieceAt(int square) {
+		return position.pieceAt(square);
 	}
 
-	//already checked if piece is null
-	public static void movePiece(ReturnPiece piece, String moveTo) {
-		lastMove = piece.pieceFile.name() + piece.pieceRank + " " + moveTo; // Store the last move
-		piece.pieceFile = PieceFile.valueOf(String.valueOf(moveTo.charAt(0)));
-		piece.pieceRank = Character.getNumericValue(moveTo.charAt(1));
+	//already checked if there is a piece on moveFrom
+	public static void movePiece(int moveFrom, int moveTo) {
+		position.move(moveFrom, moveTo);
+		position.setLastMove(Move.of(moveFrom, moveTo)); // Store the last move
 	}
 
 
-	public static boolean hasMoved(ReturnPiece piece) {
-		return hasMoved.getOrDefault(piece, false); // Check if the piece has moved
+	public static boolean hasMoved(int square) {
+		return position.hasMoved(square); // Check if the piece has moved
 	}
 
 
 	public static boolean isWhitePiece(PieceType pieceType) {
-		return pieceType.name().charAt(0) == 'W';
+		return Position.isWhite(pieceType);
 	}
 
 
-	public static boolean isInCheck(String position) {
-		// Check if the king is in check
-		for (ReturnPiece piece : board) {
-			if (piece.pieceType.name().charAt(1) != 'K') { // Check if the piece is not a king
-				if (LegalCheck.isLegalMove(piece.pieceFile.name() + piece.pieceRank + " " + position, board)) {
-					return true;
-				}
-			}
-		}
-		return false;
+	public static boolean isInCheck(int square, Position board) {
+		// Check if the piece on the square (normally a king) is attacked
+		return isSquareAttacked(square, board);
 	}
 
 
-	public static boolean isSquareAttacked(String moveToPosition, ArrayList<ReturnPiece> board, ReturnPiece movingPiece) {
-		for (ReturnPiece piece : board) {
-			if (piece.equals(movingPiece)) continue; // Exclude the moving piece from the check
-			if (!isPieceSameColor(piece, movingPiece)) {
-				if (LegalCheck.isLegalMove(piece.pieceFile.name() + piece.pieceRank + " " + moveToPosition, board)) {
-					return true;
-				}
-			}
-		}
-		return false;
+	public static boolean isSquareAttacked(int moveToPosition, Position board, PieceType movingPiece) {
+		// only the other side's pieces can attack, which also leaves out the moving piece itself
+		int attacker = Position.colorOf(movingPiece) == Position.WHITE ? Position.BLACK : Position.WHITE;
+		return board.isSquareAttackedBy(moveToPosition, attacker);
 		}		
 	
-		public static boolean isSquareAttacked(String targetPosition, ArrayList<ReturnPiece> board) {
-			for (ReturnPiece piece : board) {
-				// If it's the same color as the king we're checking, skip this piece.
-				if (Chess.isWhitePiece(piece.pieceType) == Chess.isWhitePiece(Chess.getPieceAt(targetPosition).pieceType)) {
-					continue;
-				}
-				
-				// Check if the opposing piece can attack the target position.
-				if (LegalCheck.isLegalMove(piece.pieceFile.name() + piece.pieceRank + " " + targetPosition, board)) {
-					return true;
-				}
-			}
-			return false;
+		public static boolean isSquareAttacked(int targetPosition, Position board) {
+			// If it's the same color as the king we're checking, skip this piece.
+			PieceType piece = board.pieceAt(targetPosition);
+			return piece != null && isSquareAttacked(targetPosition, board, piece);
 		}
 
-	private static boolean isPieceSameColor(ReturnPiece threatPiece, ReturnPiece movingPiece) {
-		
-		if (movingPiece == null || threatPiece == null) {
-			return false;
-		}
+	/** @return the Zobrist key of the current game position */
+	public static long hash() {
+		return position.hash();
+	}
 
-		return isWhitePiece(movingPiece.pieceType) == isWhitePiece(threatPiece.pieceType);
+	/** @return the static evaluation of the current game position in centipawns, for the player to move */
+	public static int evaluate() {
+		return game.evaluate();
 	}
 
-	public static String getKingPos(Player opposingPlayer) {
-		for (ReturnPiece piece : board) {
-			if (piece.pieceType.name().charAt(1) == 'K') { // Checking if the piece is a King
-				if (isWhitePiece(piece.pieceType) && opposingPlayer == Player.black) { // If it's a white king and we want the black king
-					continue;
-				} else if (!isWhitePiece(piece.pieceType) && opposingPlayer == Player.white) { // If it's a black king and we want the white king
-					continue;
-				}
-				return piece.pieceFile.name() + piece.pieceRank;  // Return the found king's position
-			}
-		}
-		return null;
+	public static int getKingPos(Player opposingPlayer) {
+		return position.kingSquare(opposingPlayer == Player.white ? Position.WHITE : Position.BLACK);  // Return the found king's position
 	}
 
-	public static boolean isPieceSameColor(ReturnPiece piece1, ReturnPiece piece2, ArrayList<ReturnPiece> board) {
+	public static boolean isPieceSameColor(PieceType piece1, PieceType piece2) {
 		if (piece1 == null || piece2 == null) {
 			return false;
 		}
-	
-		for (ReturnPiece piece : board) {
-			if (piece.pieceFile == piece1.pieceFile && piece.pieceRank == piece1.pieceRank) {
-				if (piece.pieceType.name().charAt(0) == piece2.pieceType.name().charAt(0)) {
-					return true;
-				} else {
-					return false;
-				}
-			}
-		}
-	
-		return false;
+		return Position.colorOf(piece1) == Position.colorOf(piece2);
 	}
 
 
-	public static boolean isMoveValidBasedOnColor(ReturnPiece movingPiece, String position) {
-		ReturnPiece pieceAtPosition = Chess.getPieceAt(position);
+	public static boolean isMoveValidBasedOnColor(PieceType movingPiece, int position, Position board) {
+		PieceType pieceAtPosition = board.pieceAt(position);
 		
 		// Case 1: The destination square is empty
 		if (pieceAtPosition == null) {
@@ -279,36 +178,17 @@ public class Chess {
 		}
 		
 		// Case 2 & 3: Compare the colors of the moving piece and the piece at the destination
-		boolean isSameColor = isWhitePiece(movingPiece.pieceType) == isWhitePiece(pieceAtPosition.pieceType);
+		boolean isSameColor = isWhitePiece(movingPiece) == isWhitePiece(pieceAtPosition);
 		return !isSameColor; // If they are of the same color, return false (invalid move). Otherwise, return true.
 	}
 
-	public static String findPiecePosition(ReturnPiece targetPiece, ArrayList<ReturnPiece> board) {
-		for (ReturnPiece piece : board) {
-			if (piece.equals(targetPiece)) {
-				return piece.pieceFile.name() + piece.pieceRank;
-			}
-		}
-		return null;
-	}
-
 
-	public static String getWhiteKingPos() {
-		for (ReturnPiece piece : board) {
-			if (piece.pieceType.name().charAt(1) == 'K' && isWhitePiece(piece.pieceType)) {
-				return piece.pieceFile.name() + piece.pieceRank;
-			}
-		}
-		return null;
+	public static int getWhiteKingPos() {
+		return getKingPos(Player.white);
 	}
 	
-	public static String getBlackKingPos() {
-		for (ReturnPiece piece : board) {
-			if (piece.pieceType.name().charAt(1) == 'K' && !isWhitePiece(piece.pieceType)) {
-				return piece.pieceFile.name() + piece.pieceRank;
-			}
-		}
-		return null;
+	public static int getBlackKingPos() {
+		return getKingPos(Player.black);
 	}
 }
 
@@ -0,0 +1,61 @@
+package chess;
+
+/**
+ * Chess Draws:
+ *
+ * Besides agreeing to one, a game is drawn without anyone asking when:
+ * - Stalemate: the player to move is not in check but has no legal move.
+ * - Threefold repetition: the same position, with the same player to move
+ *   and the same castling and en passant possibilities, comes up for the
+ *   third time.
+ * - Fifty-move rule: fifty moves by each player have gone by without a
+ *   capture or a pawn move.
+ * - Insufficient material: neither player has the pieces left to checkmate
+ *   by any series of moves, e.g. king against king, or king and bishop or
+ *   knight against king.
+ *
+ * Strictly, repetition and the fifty-move rule give a player the right to
+ * claim a draw; here they end the game as soon as they happen, so a game
+ * between two programs can't go on forever.
+ *
+ * None of the checks look at the whole board: material comes from the
+ * counts Position keeps as pieces come and go, repetition compares the
+ * Zobrist keys of the positions since the last capture or pawn move, and
+ * stalemate stops at the first legal move it finds.
+ */
+public class Draw {
+
+    /** Halfmove clock at which the fifty-move rule ends the game. */
+    public static final int FIFTY_MOVES = 100;
+
+    /**
+     * Determines if the game is drawn now that a move was made, checkmate
+     * aside (see CheckMate, which comes first).
+     *
+     * @param board  The board after the move, with the other player to move.
+     * @return STALEMATE, DRAW for the other rules, or null if play goes on.
+     */
+    public static ReturnPlay.Message afterMove(Position board) {
+        if (isStalemate(board)) {
+            return ReturnPlay.Message.STALEMATE;
+        }
+        if (isFiftyMoveRule(board) || isThreefoldRepetition(board) || board.isInsufficientMaterial()) {
+            return ReturnPlay.Message.DRAW;
+        }
+        return null;
+    }
+
+    /** @return true if the player to move has no legal move and is not in check */
+    public static boolean isStalemate(Position board) {
+        int side = board.sideToMove();
+        return !board.isInCheck(side) && !MoveGenerator.hasAnyLegalMove(board, side);
+    }
+
+    public static boolean isFiftyMoveRule(Position board) {
+        return board.halfmoveClock() >= FIFTY_MOVES;
+    }
+
+    public static boolean isThreefoldRepetition(Position board) {
+        return board.repetitions() >= 2;
+    }
+}
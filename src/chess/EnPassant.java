@@ -13,33 +13,24 @@ import chess.ReturnPiece.PieceType;
 
 public class EnPassant {
     
-    public static boolean canEnPassant(ReturnPiece pawn, String end) {
-    // Check if last move was a two-square pawn advance
-    if (Chess.lastMove == null) return false;
+    public static boolean canEnPassant(PieceType pawn, int start, int end, Position board) {
+    // the state word remembers the file of a pawn that just advanced two squares
+    int epFile = board.epFile();
+    if (epFile < 0) return false;
 
-    String lastMoveStart = Chess.lastMove.substring(0, 2);
-    String lastMoveEnd = Chess.lastMove.substring(3, 5);
+    int endRank = Position.rankOf(end);
+    if ((pawn == PieceType.WP && endRank != 6) || (pawn == PieceType.BP && endRank != 3)) return false;
+    if (Position.fileOf(end) != epFile) return false;
 
-    ReturnPiece lastMovedPiece = Chess.getPieceAt(lastMoveEnd);
-    if (lastMovedPiece == null || !isPawn(lastMovedPiece)) return false;
-
-    // Ensure pawn being captured is opposite color
-    if (lastMovedPiece.pieceType == pawn.pieceType) return false;
-
-    if (Math.abs(lastMoveStart.charAt(1) - lastMoveEnd.charAt(1)) != 2) return false;
-
-    int endRank = Character.getNumericValue(end.charAt(1));
-    if ((pawn.pieceType == PieceType.WP && endRank != 6) || (pawn.pieceType == PieceType.BP && endRank != 3)) return false;
-
-    char pawnFile = pawn.pieceFile.name().charAt(0);
-    char lastMovedPieceFile = lastMovedPiece.pieceFile.name().charAt(0);
-    if (Math.abs(pawnFile - lastMovedPieceFile) != 1) return false;
+    // the capturing pawn sits beside the pawn that just moved, which has to be the other colour's
+    PieceType passed = board.pieceAt(Position.square(epFile, Position.rankOf(start)));
+    if (passed == null || !isPawn(passed) || passed == pawn) return false;
 
     return true;
     }
 
-    private static boolean isPawn(ReturnPiece piece) {
-        return piece.pieceType == PieceType.WP || piece.pieceType == PieceType.BP;
+    private static boolean isPawn(PieceType piece) {
+        return piece == PieceType.WP || piece == PieceType.BP;
     }
 
 
@@ -0,0 +1,155 @@
+package chess;
+
+/**
+ * Material and piece-square tables for the static evaluation.
+ *
+ * Each piece on a square is worth a fixed number of centipawns, once for
+ * the middlegame and once for the endgame, with its material value folded
+ * in. A position's two totals are the sums over its pieces, white's counted
+ * up and black's down, so like the Zobrist key they only change by what a
+ * move takes away and adds, and Position keeps them up to date in O(1) per
+ * change (see Position.evaluate).
+ *
+ * The two totals are blended by how much material is left: the phase starts
+ * at 24 with every knight, bishop, rook and queen on the board (1, 1, 2 and
+ * 4 each) and the score slides from the middlegame total towards the
+ * endgame one as they come off. That is where the king goes from hiding
+ * behind its pawns to walking up the board, and pawns grow in value as they
+ * near promotion.
+ */
+public final class Evaluation {
+
+    /** Phase with all the pieces on the board. */
+    static final int MAX_PHASE = 24;
+
+    /** Middlegame and endgame value of each PieceType ordinal on each square; black's are negative. */
+    static final int[][] MIDDLEGAME = new int[12][64];
+    static final int[][] ENDGAME = new int[12][64];
+
+    /** How much each PieceType ordinal counts towards the phase. */
+    static final int[] PHASE = { 0, 2, 1, 1, 4, 0, 0, 2, 1, 1, 0, 4 };
+
+    // material by white PieceType ordinal: pawn, rook, knight, bishop, queen, king
+    private static final int[] MATERIAL_MG = { 82, 477, 337, 365, 1025, 0 };
+    private static final int[] MATERIAL_EG = { 94, 512, 281, 297, 936, 0 };
+
+    // The tables are written the way the board is printed, rank 8 at the top,
+    // from white's side; black uses them mirrored.
+
+    private static final int[] PAWN_MG = {
+          0,   0,   0,   0,   0,   0,   0,   0,
+         60,  70,  60,  70,  70,  60,  70,  60,
+         10,  15,  25,  35,  35,  25,  15,  10,
+          0,   5,  10,  25,  25,  10,   5,   0,
+         -5,   0,   5,  20,  20,   5,   0,  -5,
+         -5,  -5,   0,   5,   5,   0,  -5,  -5,
+         -5,   0,   0, -20, -20,   5,   5,  -5,
+          0,   0,   0,   0,   0,   0,   0,   0,
+    };
+
+    private static final int[] PAWN_EG = {
+          0,   0,   0,   0,   0,   0,   0,   0,
+        150, 150, 140, 130, 130, 140, 150, 150,
+         90,  90,  80,  70,  70,  80,  90,  90,
+         40,  40,  35,  30,  30,  35,  40,  40,
+         15,  15,  10,  10,  10,  10,  15,  15,
+          5,   5,   0,   0,   0,   0,   5,   5,
+          0,   0,   0,   0,   0,   0,   0,   0,
+          0,   0,   0,   0,   0,   0,   0,   0,
+    };
+
+    private static final int[] KNIGHT = {
+        -50, -35, -25, -20, -20, -25, -35, -50,
+        -35, -15,   0,   5,   5,   0, -15, -35,
+        -25,   5,  15,  20,  20,  15,   5, -25,
+        -20,   5,  20,  25,  25,  20,   5, -20,
+        -20,   0,  15,  25,  25,  15,   0, -20,
+        -25,   0,  10,  15,  15,  10,   0, -25,
+        -35, -15,   0,   5,   5,   0, -15, -35,
+        -50, -35, -25, -20, -20, -25, -35, -50,
+    };
+
+    private static final int[] BISHOP = {
+        -20, -10, -10, -10, -10, -10, -10, -20,
+        -10,   0,   0,   0,   0,   0,   0, -10,
+        -10,   0,   5,  10,  10,   5,   0, -10,
+        -10,   5,   5,  10,  10,   5,   5, -10,
+        -10,   0,  10,  10,  10,  10,   0, -10,
+        -10,  10,  10,  10,  10,  10,  10, -10,
+        -10,   5,   0,   0,   0,   0,   5, -10,
+        -20, -10, -10, -10, -10, -10, -10, -20,
+    };
+
+    private static final int[] ROOK = {
+          5,   5,   5,   5,   5,   5,   5,   5,
+         15,  20,  20,  20,  20,  20,  20,  15,
+         -5,   0,   0,   0,   0,   0,   0,  -5,
+         -5,   0,   0,   0,   0,   0,   0,  -5,
+         -5,   0,   0,   0,   0,   0,   0,  -5,
+         -5,   0,   0,   0,   0,   0,   0,  -5,
+         -5,   0,   0,   0,   0,   0,   0,  -5,
+          0,   0,   0,   5,   5,   5,   0,   0,
+    };
+
+    private static final int[] QUEEN = {
+        -20, -10, -10,  -5,  -5, -10, -10, -20,
+        -10,   0,   0,   0,   0,   0,   0, -10,
+        -10,   0,   5,   5,   5,   5,   0, -10,
+         -5,   0,   5,   5,   5,   5,   0,  -5,
+         -5,   0,   5,   5,   5,   5,   0,  -5,
+        -10,   0,   5,   5,   5,   5,   0, -10,
+        -10,   0,   0,   0,   0,   0,   0, -10,
+        -20, -10, -10,  -5,  -5, -10, -10, -20,
+    };
+
+    private static final int[] KING_MG = {
+        -40, -50, -50, -60, -60, -50, -50, -40,
+        -40, -50, -50, -60, -60, -50, -50, -40,
+        -40, -50, -50, -60, -60, -50, -50, -40,
+        -40, -50, -50, -60, -60, -50, -50, -40,
+        -30, -40, -40, -50, -50, -40, -40, -30,
+        -20, -30, -30, -40, -40, -30, -30, -20,
+         10,  10,  -5, -20, -20,  -5,  10,  10,
+         20,  30,  10, -10,   0,  -5,  30,  20,
+    };
+
+    private static final int[] KING_EG = {
+        -50, -35, -25, -20, -20, -25, -35, -50,
+        -35, -15,   0,   5,   5,   0, -15, -35,
+        -25,   0,  20,  25,  25,  20,   0, -25,
+        -20,   5,  25,  35,  35,  25,   5, -20,
+        -20,   5,  25,  35,  35,  25,   5, -20,
+        -25,   0,  20,  25,  25,  20,   0, -25,
+        -35, -15,   0,   5,   5,   0, -15, -35,
+        -50, -35, -25, -20, -20, -25, -35, -50,
+    };
+
+    static {
+        // by white PieceType ordinal: pawn, rook, knight, bishop, queen, king
+        int[][] middlegame = { PAWN_MG, ROOK, KNIGHT, BISHOP, QUEEN, KING_MG };
+        int[][] endgame = { PAWN_EG, ROOK, KNIGHT, BISHOP, QUEEN, KING_EG };
+        int[] black = { 6, 7, 8, 9, 11, 10 }; // BK and BQ come the other way round
+        for (int kind = 0; kind < 6; kind++) {
+            for (int sq = 0; sq < 64; sq++) {
+                int printed = sq ^ 56; // the tables start at a8
+                MIDDLEGAME[kind][sq] = MATERIAL_MG[kind] + middlegame[kind][printed];
+                ENDGAME[kind][sq] = MATERIAL_EG[kind] + endgame[kind][printed];
+                MIDDLEGAME[black[kind]][sq] = -(MATERIAL_MG[kind] + middlegame[kind][sq]);
+                ENDGAME[black[kind]][sq] = -(MATERIAL_EG[kind] + endgame[kind][sq]);
+            }
+        }
+    }
+
+    private Evaluation() {
+    }
+
+    /**
+     * Blends the two totals by the phase.
+     *
+     * @return the score in centipawns from white's side
+     */
+    static int taper(int middlegame, int endgame, int phase) {
+        int mg = Math.min(phase, MAX_PHASE);
+        return (middlegame * mg + endgame * (MAX_PHASE - mg)) / MAX_PHASE;
+    }
+}
@@ -0,0 +1,232 @@
+package chess;
+
+import java.util.Arrays;
+
+import chess.ReturnPiece.PieceType;
+
+/**
+ * Reads and writes positions in Forsyth-Edwards Notation, e.g. the start
+ * position:
+ *
+ *   rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1
+ *
+ * load makes one pass over the characters, without regexes, splitting or
+ * substrings, and puts them straight into a Position. Loading a test suite
+ * of millions of lines only allocates the lines themselves. The last two
+ * fields, halfmove clock and fullmove number, may be left out as they are
+ * in EPD files.
+ *
+ * Castling rights, the en passant file, the halfmove clock and the side to
+ * move all go into the position's state word (see Position).
+ */
+public final class Fen {
+
+    public static final String START = "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1";
+
+    private static final PieceType[] TYPES = PieceType.values();
+
+    // PieceType ordinal for each FEN letter, -1 for anything else
+    private static final byte[] PIECE = new byte[128];
+    private static final char[] LETTER = new char[TYPES.length];
+
+    static {
+        Arrays.fill(PIECE, (byte) -1);
+        String letters = "PRNBQKprnbkq"; // PieceType order
+        for (int i = 0; i < TYPES.length; i++) {
+            char c = letters.charAt(i);
+            PIECE[c] = (byte) TYPES[i].ordinal();
+            LETTER[TYPES[i].ordinal()] = c;
+        }
+    }
+
+    private Fen() {
+    }
+
+    /**
+     * Sets the position up from a FEN string.
+     *
+     * @throws IllegalArgumentException if the text is not FEN; the position is
+     *         then left half set up
+     */
+    public static void load(Position position, CharSequence fen) {
+        int length = fen.length();
+        int i = skipSpaces(fen, 0, length);
+        position.clear();
+
+        // 1. piece placement, from a8 across and down to h1
+        int rank = 8;
+        int file = 0;
+        for (; i < length; i++) {
+            char c = fen.charAt(i);
+            if (isSpace(c)) {
+                break;
+            }
+            if (c == '/') {
+                if (file != 8 || rank == 1) {
+                    throw error(fen, i, "rank does not have 8 squares");
+                }
+                rank--;
+                file = 0;
+            } else if (c >= '1' && c <= '8') {
+                file += c - '0';
+            } else {
+                int piece = c < 128 ? PIECE[c] : -1;
+                if (piece < 0) {
+                    throw error(fen, i, "not a piece");
+                }
+                if (file > 7) {
+                    throw error(fen, i, "rank does not have 8 squares");
+                }
+                position.add(TYPES[piece], Position.square(file, rank));
+                file++;
+            }
+            if (file > 8) {
+                throw error(fen, i, "rank does not have 8 squares");
+            }
+        }
+        if (rank != 1 || file != 8) {
+            throw error(fen, i, "board does not have 8 ranks");
+        }
+
+        // 2. side to move
+        i = skipSpaces(fen, i, length);
+        if (i < length && fen.charAt(i) == 'b') {
+            position.switchSides();
+        } else if (i >= length || fen.charAt(i) != 'w') {
+            throw error(fen, i, "side to move must be w or b");
+        }
+        i++;
+
+        // 3. castling rights; one whose king or rook is not at home is dropped (see addCastlingRights)
+        i = skipSpaces(fen, i, length);
+        if (i < length && fen.charAt(i) == '-') {
+            i++;
+        } else {
+            for (; i < length && !isSpace(fen.charAt(i)); i++) {
+                switch (fen.charAt(i)) {
+                    case 'K': position.addCastlingRights(Position.WHITE_KINGSIDE); break;
+                    case 'Q': position.addCastlingRights(Position.WHITE_QUEENSIDE); break;
+                    case 'k': position.addCastlingRights(Position.BLACK_KINGSIDE); break;
+                    case 'q': position.addCastlingRights(Position.BLACK_QUEENSIDE); break;
+                    default:
+                        throw error(fen, i, "castling rights must be - or some of KQkq");
+                }
+            }
+        }
+
+        // 4. en passant square, kept as the file of the two square push that allowed it
+        i = skipSpaces(fen, i, length);
+        if (i < length && fen.charAt(i) == '-') {
+            i++;
+        } else {
+            int target = Position.square(fen, i);
+            boolean white = position.sideToMove() == Position.WHITE;
+            if (target < 0 || i + 2 < length && !isSpace(fen.charAt(i + 2))
+                    || Position.rankOf(target) != (white ? 6 : 3)) {
+                throw error(fen, i, "en passant must be - or a square on the third or sixth rank");
+            }
+            int direction = white ? 8 : -8;
+            position.setLastMove(Move.of(target + direction, target - direction, Move.PROMO_NONE, Move.FLAG_DOUBLE_PUSH));
+            i += 2;
+        }
+
+        // 5. and 6. halfmove clock and fullmove number, both optional
+        i = skipSpaces(fen, i, length);
+        if (i < length) {
+            position.setHalfmoveClock(number(fen, i, length));
+            i = skipSpaces(fen, skipDigits(fen, i, length), length);
+            if (i < length) {
+                position.fullmoveNumber = Math.max(1, number(fen, i, length));
+                i = skipSpaces(fen, skipDigits(fen, i, length), length);
+            }
+        }
+        if (i < length) {
+            throw error(fen, i, "unexpected text after the last field");
+        }
+    }
+
+    /** @return the position in FEN */
+    public static String toString(Position position) {
+        return append(position, new StringBuilder(90)).toString();
+    }
+
+    /** Writes the position's FEN to the builder, which is returned for chaining. */
+    public static StringBuilder append(Position position, StringBuilder out) {
+        for (int rank = 8; rank >= 1; rank--) {
+            int empty = 0;
+            for (int file = 0; file < 8; file++) {
+                PieceType piece = position.pieceAt(Position.square(file, rank));
+                if (piece == null) {
+                    empty++;
+                    continue;
+                }
+                if (empty > 0) {
+                    out.append((char) ('0' + empty));
+                    empty = 0;
+                }
+                out.append(LETTER[piece.ordinal()]);
+            }
+            if (empty > 0) {
+                out.append((char) ('0' + empty));
+            }
+            if (rank > 1) {
+                out.append('/');
+            }
+        }
+
+        out.append(position.sideToMove() == Position.WHITE ? " w " : " b ");
+
+        int rights = position.castlingRights();
+        if (rights == 0) {
+            out.append('-');
+        } else {
+            if ((rights & Position.WHITE_KINGSIDE) != 0) out.append('K');
+            if ((rights & Position.WHITE_QUEENSIDE) != 0) out.append('Q');
+            if ((rights & Position.BLACK_KINGSIDE) != 0) out.append('k');
+            if ((rights & Position.BLACK_QUEENSIDE) != 0) out.append('q');
+        }
+
+        int epFile = position.epFile();
+        if (epFile < 0) {
+            out.append(" -");
+        } else {
+            out.append(' ').append((char) ('a' + epFile)).append(position.sideToMove() == Position.WHITE ? '6' : '3');
+        }
+
+        return out.append(' ').append(position.halfmoveClock()).append(' ').append(position.fullmoveNumber());
+    }
+
+    private static int skipSpaces(CharSequence text, int i, int length) {
+        while (i < length && isSpace(text.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    private static boolean isSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\r' || c == '\n';
+    }
+
+    private static int skipDigits(CharSequence text, int i, int length) {
+        while (i < length && text.charAt(i) >= '0' && text.charAt(i) <= '9') {
+            i++;
+        }
+        return i;
+    }
+
+    private static int number(CharSequence text, int i, int length) {
+        int end = skipDigits(text, i, length);
+        if (end == i || end - i > 9) {
+            throw error(text, i, "expected a number");
+        }
+        int value = 0;
+        for (; i < end; i++) {
+            value = value * 10 + (text.charAt(i) - '0');
+        }
+        return value;
+    }
+
+    private static IllegalArgumentException error(CharSequence fen, int at, String what) {
+        return new IllegalArgumentException("bad FEN at " + at + ", " + what + ": " + fen);
+    }
+}
@@ -0,0 +1,184 @@
+package chess;
+
+import chess.Chess.Player;
+import chess.ReturnPiece.PieceFile;
+import chess.ReturnPiece.PieceType;
+
+/**
+ * One game of chess: its own board, whose turn it is, castling rights and
+ * en passant, all kept in a Position (see Position).
+ *
+ * Nothing here or in the rule classes is shared between games, so any number
+ * of Game objects can live in one JVM and be played on different threads. A
+ * single game is not synchronized and should only be used by one thread at a
+ * time. Chess.play and Chess.start are wrappers around Chess.game, the
+ * default instance.
+ */
+public class Game {
+
+    private final Position position = new Position();
+
+    // where this game's moves are recorded, null if they aren't (see Journal)
+    private Journal journal;
+    private long journalId;
+    private int journalRecords; // records the game has in the journal
+    private long journaled;     // journal position just past the last of them
+
+    /** Creates a game already set up in the starting position. */
+    public Game() {
+        start();
+    }
+
+    /**
+     * Plays the next move for whichever player has the turn.
+     *
+     * @param move String for next move, e.g. "a2 a3"
+     * @return A ReturnPlay instance that contains the result of the move.
+     */
+    public ReturnPlay play(CharSequence move) {
+        ReturnPlay result = new ReturnPlay();
+        result.message = playQuietly(move);
+        result.piecesOnBoard = position.toList(); // only place the piece list gets built
+        return result;
+    }
+
+    /**
+     * Plays the move exactly like play but skips building the piece list,
+     * for callers that only want to know what happened.
+     *
+     * @return the message play would return, null for an ordinary move
+     */
+    public ReturnPlay.Message playQuietly(CharSequence move) {
+        // the text is parsed once here and everything past this point works on the packed int
+        return playInput(InputValidation.parse(move));
+    }
+
+    /** Plays what InputValidation.parse made of a line, for callers that want the code too. */
+    ReturnPlay.Message playInput(int input) {
+        //move priority illegal move -> draw -> reset/resign -> checkmate/check
+
+        switch (input) {
+            case InputValidation.INVALID:
+                return ReturnPlay.Message.ILLEGAL_MOVE;
+            case InputValidation.RESIGN:
+                return currentPlayer() == Player.white ? ReturnPlay.Message.RESIGN_BLACK_WINS : ReturnPlay.Message.RESIGN_WHITE_WINS;
+            case InputValidation.RESET:
+                start();
+                return null;
+            default:
+                break;
+        }
+
+        ReturnPlay.Message message = ProcessMove.processMove(this, input & ~InputValidation.DRAW_OFFER);
+
+        // Handle draw after a legal move is made
+        if (message != ReturnPlay.Message.ILLEGAL_MOVE && (input & InputValidation.DRAW_OFFER) != 0) {
+            message = ReturnPlay.Message.DRAW;
+        }
+        return message;
+    }
+
+    /** Resets the game to the starting position with white to move. */
+    public void start() {
+        position.clear(); // white to move, no last move
+
+        //special pieces  file is letter, rank is number. Ex. pawn at a2 on board. a=file, 2=rank
+        addToBoard(PieceType.WR, PieceFile.a, 1);
+        addToBoard(PieceType.WN, PieceFile.b, 1);
+        addToBoard(PieceType.WB, PieceFile.c, 1);
+        addToBoard(PieceType.WQ, PieceFile.d, 1);
+        addToBoard(PieceType.WK, PieceFile.e, 1);
+        addToBoard(PieceType.WB, PieceFile.f, 1);
+        addToBoard(PieceType.WN, PieceFile.g, 1);
+        addToBoard(PieceType.WR, PieceFile.h, 1);
+
+        addToBoard(PieceType.BR, PieceFile.a, 8);
+        addToBoard(PieceType.BN, PieceFile.b, 8);
+        addToBoard(PieceType.BB, PieceFile.c, 8);
+        addToBoard(PieceType.BQ, PieceFile.d, 8);
+        addToBoard(PieceType.BK, PieceFile.e, 8);
+        addToBoard(PieceType.BB, PieceFile.f, 8);
+        addToBoard(PieceType.BN, PieceFile.g, 8);
+        addToBoard(PieceType.BR, PieceFile.h, 8);
+
+        // pawns
+        for (PieceFile file : PieceFile.values()) {
+            addToBoard(PieceType.WP, file, 2);
+            addToBoard(PieceType.BP, file, 7);
+        }
+        if (journal != null) {
+            journaled = journal.start(journalId, ++journalRecords);
+        }
+    }
+
+    /**
+     * Sets the game up from a FEN string instead of replaying the moves that
+     * led to it (see Fen). Moves made before the load can't be taken back.
+     *
+     * @throws IllegalArgumentException if the text is not FEN; the game is
+     *         then left as it was
+     */
+    public void load(CharSequence fen) {
+        Position loaded = new Position(); // Fen.load leaves a bad FEN half set up, so not on the game's board
+        Fen.load(loaded, fen);
+        position.copyFrom(loaded);
+        if (journal != null) {
+            journaled = journal.load(journalId, ++journalRecords, Fen.toString(position));
+        }
+    }
+
+    /** @return the current position in FEN */
+    public String fen() {
+        return Fen.toString(position);
+    }
+
+    /**
+     * Records the game in the journal from now on, as game id, starting
+     * after the records it already has there. A null journal stops it.
+     */
+    void journalTo(Journal journal, long id, int records) {
+        this.journal = journal;
+        this.journalId = id;
+        this.journalRecords = records;
+    }
+
+    int journalRecords() {
+        return journalRecords;
+    }
+
+    /** @return the journal position the game's records so far end at, see Journal.whenDurable */
+    long journaled() {
+        return journaled;
+    }
+
+    /** Called by ProcessMove once a move has been made and stands. */
+    void moveMade(int move) {
+        if (journal != null) {
+            journaled = journal.move(journalId, ++journalRecords, move);
+        }
+    }
+
+    public void addToBoard(PieceType type, PieceFile file, int rank) {
+        int square = Position.square(file, rank);
+        position.add(type, square);
+        position.markUnmoved(square); // fresh piece, hasn't moved yet
+    }
+
+    public Position position() {
+        return position;
+    }
+
+    public Player currentPlayer() {
+        return position.sideToMove() == Position.WHITE ? Player.white : Player.black;
+    }
+
+    /** @return the Zobrist key of the current position */
+    public long hash() {
+        return position.hash();
+    }
+
+    /** @return the static evaluation of the current position in centipawns, for the player to move */
+    public int evaluate() {
+        return position.evaluate();
+    }
+}
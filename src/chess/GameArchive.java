@@ -0,0 +1,460 @@
+package chess;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32C;
+
+/**
+ * Binary file of finished games. Moves take one or two bytes each instead
+ * of the six of a text line like "e2 e4", and the results go with them.
+ *
+ * All numbers are little-endian.
+ *
+ *   header, 32 bytes
+ *     0  int    magic "CHGA"
+ *     4  short  version (1)
+ *     6  short  encoding, WORDS or INDICES
+ *     8  long   number of games
+ *    16  long   offset of the game index, 0 while a writer has the file open
+ *    24  int    CRC32C of the game index
+ *    28  int    CRC32C of header bytes 0..27
+ *
+ *   one record per game
+ *     0  short  number of moves
+ *     2  byte   outcome, 0 if unfinished, else ReturnPlay.Message ordinal + 1
+ *     3  byte   unused
+ *     4  int    CRC32C of record bytes 0..3 and the moves
+ *     8         the moves
+ *
+ *   game index
+ *           one long per game, the offset of its record
+ *
+ * With WORDS each move is the low 16 bits of its packed int (see Move):
+ * from, to and promotion. Any move can be read straight from the file.
+ *
+ * With INDICES each move is one byte, its position in the list
+ * MoveGenerator produces for the position it was played in. That list
+ * never holds more than 218 moves and always comes out in the same order,
+ * so reading a move means replaying the game up to it.
+ *
+ * A file has to fit in one mapping, so it can be up to 2 GB. That is about a
+ * billion moves stored as words.
+ */
+public class GameArchive {
+
+    public static final int WORDS = 0;
+    public static final int INDICES = 1;
+
+    static final int MAGIC = 'C' | ('H' << 8) | ('G' << 16) | ('A' << 24);
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 32;
+    static final int RECORD_HEADER_BYTES = 8;
+
+    private static final ReturnPlay.Message[] MESSAGES = ReturnPlay.Message.values();
+
+    private GameArchive() {
+    }
+
+    /** Prints a summary of an archive and checks every checksum, or lists the moves of one game. */
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("usage: java chess.GameArchive file [game]");
+            System.exit(2);
+        }
+        try (Reader reader = new Reader(Paths.get(args[0]))) {
+            if (args.length > 1) {
+                int game = Integer.parseInt(args[1]);
+                int[] moves = new int[Reader.MAX_GAME_MOVES];
+                int count = reader.readMoves(game, moves);
+                for (int i = 0; i < count; i++) {
+                    System.out.println(Move.toString(moves[i]));
+                }
+                ReturnPlay.Message outcome = reader.outcome(game);
+                System.out.println("# " + (outcome == null ? BatchReplay.UNFINISHED : outcome.name()));
+                return;
+            }
+            long moves = 0;
+            for (int game = 0; game < reader.gameCount(); game++) {
+                moves += reader.moveCount(game);
+            }
+            int bad = reader.verifyAll();
+            System.out.println("games " + reader.gameCount() + ", moves " + moves + ", "
+                    + (reader.encoding() == WORDS ? "words" : "indices") + ", "
+                    + (bad < 0 ? "all checksums match" : "checksum mismatch in game " + bad));
+            System.exit(bad < 0 ? 0 : 1);
+        }
+    }
+
+    static ReturnPlay.Message outcomeOf(int code) {
+        return code == 0 ? null : MESSAGES[code - 1];
+    }
+
+    /**
+     * Appends games to an archive, creating the file if needed. The index
+     * and header are only written by close, so an archive that was not
+     * closed can't be read.
+     */
+    public static class Writer implements AutoCloseable {
+
+        private final FileChannel channel;
+        private final int encoding;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+        private final CRC32C crc = new CRC32C();
+        private long[] offsets = new long[1024];
+        private int games;
+        private long position; // where the next record goes
+
+        // for INDICES, the game is replayed to find each move in the generated list
+        private final Position board = new Position();
+        private final int[] legal = new int[MoveGenerator.MAX_MOVES];
+        private final int[] moves = new int[Reader.MAX_GAME_MOVES];
+        private final byte[] record = new byte[RECORD_HEADER_BYTES + 2 * Reader.MAX_GAME_MOVES];
+
+        /**
+         * Opens the archive for appending. If it already exists its own
+         * encoding is kept and the one given here is ignored.
+         */
+        public Writer(Path file, int encoding) throws IOException {
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            if (channel.size() == 0) {
+                this.encoding = encoding;
+                position = HEADER_BYTES;
+            } else {
+                // pick up the existing index and write new games over it
+                try (Reader existing = new Reader(channel)) {
+                    this.encoding = existing.encoding();
+                    games = existing.gameCount();
+                    offsets = Arrays.copyOf(existing.offsets(), Math.max(1024, games * 2));
+                    position = existing.indexOffset();
+                }
+                channel.truncate(position);
+            }
+            writeHeader(0L, 0);
+        }
+
+        /**
+         * Appends the moves played in the game since it was started, as ProcessMove recorded them.
+         *
+         * @throws IllegalArgumentException if the game is longer than Reader.MAX_GAME_MOVES,
+         *         or did not start from the starting position
+         */
+        public void append(Game game, ReturnPlay.Message outcome) throws IOException {
+            Position played = game.position();
+            int count = played.undoDepth();
+            if (count > moves.length) {
+                throw new IllegalArgumentException("game too long: " + count + " moves");
+            }
+            if (played.rootHash() != START.hash()) {
+                throw new IllegalArgumentException("game was not played from the starting position");
+            }
+            for (int i = 0; i < count; i++) {
+                moves[i] = played.moveAt(i);
+            }
+            append(moves, count, outcome);
+        }
+
+        /**
+         * Appends a game played from the starting position.
+         *
+         * @param outcome how the game ended, null if it did not
+         */
+        public void append(int[] gameMoves, int count, ReturnPlay.Message outcome) throws IOException {
+            if (count > Reader.MAX_GAME_MOVES) {
+                throw new IllegalArgumentException("game too long: " + count + " moves");
+            }
+            int length = RECORD_HEADER_BYTES;
+            if (encoding == WORDS) {
+                for (int i = 0; i < count; i++) {
+                    record[length++] = (byte) gameMoves[i];
+                    record[length++] = (byte) (gameMoves[i] >>> 8);
+                }
+            } else {
+                Reader.setUpStart(board);
+                for (int i = 0; i < count; i++) {
+                    int index = indexOf(gameMoves[i], legal, MoveGenerator.generateLegalMoves(board, legal));
+                    if (index < 0) {
+                        throw new IllegalArgumentException("move " + (i + 1) + " is not legal: " + Move.toString(gameMoves[i]));
+                    }
+                    record[length++] = (byte) index;
+                    board.makeMove(legal[index]);
+                }
+            }
+            record[0] = (byte) count;
+            record[1] = (byte) (count >>> 8);
+            record[2] = (byte) (outcome == null ? 0 : outcome.ordinal() + 1);
+            record[3] = 0;
+            crc.reset();
+            crc.update(record, 0, 4);
+            crc.update(record, RECORD_HEADER_BYTES, length - RECORD_HEADER_BYTES);
+            int sum = (int) crc.getValue();
+            record[4] = (byte) sum;
+            record[5] = (byte) (sum >>> 8);
+            record[6] = (byte) (sum >>> 16);
+            record[7] = (byte) (sum >>> 24);
+
+            if (games == offsets.length) {
+                offsets = Arrays.copyOf(offsets, games * 2);
+            }
+            offsets[games++] = position;
+            write(record, length);
+        }
+
+        // flags are not stored, so compare from, to and promotion only
+        private static int indexOf(int move, int[] list, int count) {
+            for (int i = 0; i < count; i++) {
+                if ((list[i] & 0x7FFF) == (move & 0x7FFF)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private void write(byte[] bytes, int length) throws IOException {
+            if (buffer.remaining() < length) {
+                flush();
+            }
+            if (length <= buffer.capacity()) {
+                buffer.put(bytes, 0, length);
+            } else {
+                // a long game stored as words is bigger than the buffer, so it goes straight to the file
+                ByteBuffer whole = ByteBuffer.wrap(bytes, 0, length);
+                long at = position;
+                while (whole.hasRemaining()) {
+                    at += channel.write(whole, at);
+                }
+            }
+            position += length;
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            long at = position - buffer.remaining();
+            while (buffer.hasRemaining()) {
+                at += channel.write(buffer, at);
+            }
+            buffer.clear();
+        }
+
+        public int gameCount() {
+            return games;
+        }
+
+        /** Writes the index and the final header. */
+        @Override
+        public void close() throws IOException {
+            flush();
+            ByteBuffer index = ByteBuffer.allocate(games * 8).order(ByteOrder.LITTLE_ENDIAN);
+            for (int i = 0; i < games; i++) {
+                index.putLong(offsets[i]);
+            }
+            index.flip();
+            crc.reset();
+            crc.update(index.duplicate());
+            int indexCrc = (int) crc.getValue();
+            long at = position;
+            while (index.hasRemaining()) {
+                at += channel.write(index, at);
+            }
+            writeHeader(position, indexCrc);
+            channel.force(true);
+            channel.close();
+        }
+
+        private void writeHeader(long indexOffset, int indexCrc) throws IOException {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putShort((short) VERSION).putShort((short) encoding)
+                    .putLong(games).putLong(indexOffset).putInt(indexCrc);
+            crc.reset();
+            crc.update(header.array(), 0, 28);
+            header.putInt((int) crc.getValue());
+            header.flip();
+            channel.write(header, 0);
+        }
+    }
+
+    /**
+     * Reads an archive through a read-only memory mapping. Any game can be
+     * read by its number, and reading them all in order streams through the
+     * file. Reading a game does not allocate; moves are copied into an int
+     * array the caller supplies. A reader keeps some scratch state, so use
+     * one per thread.
+     */
+    public static class Reader implements AutoCloseable {
+
+        /** The most moves one game record can hold. */
+        public static final int MAX_GAME_MOVES = 0xFFFF;
+
+        private final FileChannel channel;
+        private final boolean ownsChannel;
+        private final MappedByteBuffer map;
+        private final ByteBuffer view; // reused for checksums
+        private final int encoding;
+        private final int games;
+        private final long indexOffset;
+        private final CRC32C crc = new CRC32C();
+
+        private final Position board = new Position();
+        private final int[] legal = new int[MoveGenerator.MAX_MOVES];
+
+        public Reader(Path file) throws IOException {
+            this(FileChannel.open(file, StandardOpenOption.READ), true);
+        }
+
+        Reader(FileChannel channel) throws IOException {
+            this(channel, false);
+        }
+
+        private Reader(FileChannel channel, boolean ownsChannel) throws IOException {
+            this.channel = channel;
+            this.ownsChannel = ownsChannel;
+            long size = channel.size();
+            if (size < HEADER_BYTES || size > Integer.MAX_VALUE) {
+                throw new IOException("not a game archive: size " + size);
+            }
+            map = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            map.order(ByteOrder.LITTLE_ENDIAN);
+            view = map.duplicate();
+
+            if (map.getInt(0) != MAGIC || map.getShort(4) != VERSION) {
+                throw new IOException("not a game archive, or a version this reader does not know");
+            }
+            if (checksum(0, 28) != map.getInt(28)) {
+                throw new IOException("header checksum mismatch");
+            }
+            encoding = map.getShort(6);
+            games = (int) map.getLong(8);
+            indexOffset = map.getLong(16);
+            if (indexOffset == 0) {
+                throw new IOException("archive was not closed, the game index is missing");
+            }
+            if (checksum((int) indexOffset, games * 8) != map.getInt(24)) {
+                throw new IOException("game index checksum mismatch");
+            }
+        }
+
+        public int gameCount() {
+            return games;
+        }
+
+        public int encoding() {
+            return encoding;
+        }
+
+        long indexOffset() {
+            return indexOffset;
+        }
+
+        long[] offsets() {
+            long[] offsets = new long[games];
+            for (int i = 0; i < games; i++) {
+                offsets[i] = offset(i);
+            }
+            return offsets;
+        }
+
+        private int offset(int game) {
+            if (game < 0 || game >= games) {
+                throw new IndexOutOfBoundsException("game " + game + " of " + games);
+            }
+            return (int) map.getLong((int) indexOffset + game * 8);
+        }
+
+        public int moveCount(int game) {
+            return map.getShort(offset(game)) & 0xFFFF;
+        }
+
+        /** @return how the game ended, null if it was unfinished */
+        public ReturnPlay.Message outcome(int game) {
+            return outcomeOf(map.get(offset(game) + 2));
+        }
+
+        /**
+         * Reads one move straight from the file. Only works for WORDS; an
+         * INDICES archive has to be read with readMoves.
+         *
+         * @return the packed move, without flags
+         */
+        public int move(int game, int ply) {
+            if (encoding != WORDS) {
+                throw new IllegalStateException("moves are stored as list indices, use readMoves");
+            }
+            return map.getShort(offset(game) + RECORD_HEADER_BYTES + 2 * ply) & 0xFFFF;
+        }
+
+        /**
+         * Copies the game's moves into the array.
+         *
+         * @param moves room for at least moveCount(game) moves
+         * @return the number of moves
+         */
+        public int readMoves(int game, int[] moves) {
+            int record = offset(game);
+            int count = map.getShort(record) & 0xFFFF;
+            int data = record + RECORD_HEADER_BYTES;
+            if (encoding == WORDS) {
+                for (int i = 0; i < count; i++) {
+                    moves[i] = map.getShort(data + 2 * i) & 0xFFFF;
+                }
+            } else {
+                setUpStart(board);
+                for (int i = 0; i < count; i++) {
+                    MoveGenerator.generateLegalMoves(board, legal);
+                    moves[i] = legal[map.get(data + i) & 0xFF];
+                    board.makeMove(moves[i]);
+                }
+            }
+            return count;
+        }
+
+        /** @return true if the game's record matches its checksum */
+        public boolean verify(int game) {
+            int record = offset(game);
+            int count = map.getShort(record) & 0xFFFF;
+            int length = count * (encoding == WORDS ? 2 : 1);
+            crc.reset();
+            view.limit(record + 4).position(record);
+            crc.update(view);
+            view.limit(record + RECORD_HEADER_BYTES + length).position(record + RECORD_HEADER_BYTES);
+            crc.update(view);
+            return (int) crc.getValue() == map.getInt(record + 4);
+        }
+
+        /** @return the first game whose checksum does not match, or -1 if they all do */
+        public int verifyAll() {
+            for (int game = 0; game < games; game++) {
+                if (!verify(game)) {
+                    return game;
+                }
+            }
+            return -1;
+        }
+
+        private int checksum(int from, int length) {
+            crc.reset();
+            view.limit(from + length).position(from);
+            crc.update(view);
+            return (int) crc.getValue();
+        }
+
+        static void setUpStart(Position board) {
+            board.copyFrom(START);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (ownsChannel) {
+                channel.close();
+            }
+        }
+    }
+
+    // every game in an archive starts here
+    private static final Position START = new Game().position();
+}
@@ -0,0 +1,229 @@
+package chess;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Puts load on a GameServer: opens many connections from one thread and
+ * keeps a number of lines in flight on each, then reports how many replies
+ * came back per second and how long they took.
+ *
+ * Every connection plays the same short opening over and over ("e2 e4",
+ * "e7 e5", "g1 f3", "b8 c6", "f1 c4", "g8 f6", "reset"), so every line is a
+ * legal move and the games never end. A reply that isn't OK is counted as
+ * an error; with the script above there should be none, while BUSY means
+ * the pipeline was deeper than the server lets a connection queue.
+ *
+ * Usage:
+ *   java chess.GameLoadClient [-host localhost] [-port 7777] [-c connections]
+ *                             [-p pipeline] [-t seconds]
+ *
+ * The number of connections is bounded by the open file limit of both
+ * processes (ulimit -n).
+ */
+public class GameLoadClient {
+
+    private static final byte[][] SCRIPT = lines("e2 e4", "e7 e5", "g1 f3", "b8 c6", "f1 c4", "g8 f6", "reset");
+    private static final int SAMPLES = 1 << 20;
+
+    private final Selector selector;
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(64 * 1024);
+    private final ByteBuffer writeBuffer = ByteBuffer.allocateDirect(64 * 1024);
+    private final int pipeline;
+
+    // latency samples, in microseconds, kept while measuring
+    private final int[] samples = new int[SAMPLES];
+    private int sampleCount;
+    private long replies;
+    private long errors;
+    private boolean measuring;
+
+    /** One connection: the next line of the script and when each line in flight was sent. */
+    private final class Connection {
+        final SocketChannel channel;
+        SelectionKey key;
+        int next;
+        final long[] sent;               // ring of send times, oldest at head
+        int head;
+        int inFlight;
+        final byte[] reply = new byte[GameServer.MAX_LINE + 64];
+        int replyLength;
+        ByteBuffer unsent;
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+            this.sent = new long[pipeline];
+        }
+    }
+
+    GameLoadClient(int pipeline) throws IOException {
+        this.selector = Selector.open();
+        this.pipeline = pipeline;
+    }
+
+    public static void main(String[] args) throws IOException {
+        String host = "localhost";
+        int port = GameServer.DEFAULT_PORT;
+        int connections = 1000;
+        int pipeline = 4;
+        int seconds = 10;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "-host": host = args[i + 1]; break;
+                case "-port": port = Integer.parseInt(args[i + 1]); break;
+                case "-c": connections = Integer.parseInt(args[i + 1]); break;
+                case "-p": pipeline = Integer.parseInt(args[i + 1]); break;
+                case "-t": seconds = Integer.parseInt(args[i + 1]); break;
+                default:
+                    System.err.println("usage: java chess.GameLoadClient [-host localhost] [-port " + GameServer.DEFAULT_PORT
+                            + "] [-c connections] [-p pipeline] [-t seconds]");
+                    System.exit(2);
+            }
+        }
+        new GameLoadClient(pipeline).run(new InetSocketAddress(host, port), connections, seconds);
+    }
+
+    void run(InetSocketAddress address, int connections, int seconds) throws IOException {
+        long started = System.nanoTime();
+        for (int i = 0; i < connections; i++) {
+            SocketChannel channel = SocketChannel.open();
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            channel.connect(address); // blocking, so the server's accept backlog can't overflow
+            channel.configureBlocking(false);
+            Connection connection = new Connection(channel);
+            connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+        }
+        System.out.printf("%d connections open in %d ms%n", connections,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+
+        for (SelectionKey key : selector.keys()) {
+            send((Connection) key.attachment());
+        }
+
+        // a second to warm up, then measure
+        long now = System.nanoTime();
+        long measureFrom = now + TimeUnit.SECONDS.toNanos(1);
+        long end = measureFrom + TimeUnit.SECONDS.toNanos(seconds);
+        while ((now = System.nanoTime()) < end) {
+            if (!measuring && now >= measureFrom) {
+                measuring = true;
+            }
+            selector.select(100);
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                Connection connection = (Connection) key.attachment();
+                if (key.isValid() && key.isWritable()) {
+                    writeUnsent(connection);
+                }
+                if (key.isValid() && key.isReadable()) {
+                    read(connection);
+                }
+            }
+        }
+        report(seconds);
+        for (SelectionKey key : selector.keys()) {
+            key.channel().close();
+        }
+        selector.close();
+    }
+
+    private void read(Connection connection) throws IOException {
+        readBuffer.clear();
+        int read = connection.channel.read(readBuffer);
+        if (read < 0) {
+            System.err.println("server closed a connection");
+            connection.key.cancel();
+            connection.channel.close();
+            return;
+        }
+        readBuffer.flip();
+        long now = System.nanoTime();
+        while (readBuffer.hasRemaining()) {
+            byte b = readBuffer.get();
+            if (b != '\n') {
+                if (connection.replyLength < connection.reply.length) {
+                    connection.reply[connection.replyLength++] = b;
+                }
+                continue;
+            }
+            long sent = connection.sent[connection.head];
+            connection.head = (connection.head + 1) % pipeline;
+            connection.inFlight--;
+            if (measuring) {
+                replies++;
+                if (connection.replyLength < 2 || connection.reply[0] != 'O' || connection.reply[1] != 'K') {
+                    errors++;
+                }
+                if (sampleCount < SAMPLES) {
+                    samples[sampleCount++] = (int) Math.min(Integer.MAX_VALUE, (now - sent) / 1000);
+                }
+            }
+            connection.replyLength = 0;
+        }
+        send(connection);
+    }
+
+    /** Tops the connection's pipeline back up. */
+    private void send(Connection connection) throws IOException {
+        if (connection.unsent != null) {
+            return;
+        }
+        writeBuffer.clear();
+        long now = System.nanoTime();
+        while (connection.inFlight < pipeline) {
+            writeBuffer.put(SCRIPT[connection.next]);
+            connection.next = (connection.next + 1) % SCRIPT.length;
+            connection.sent[(connection.head + connection.inFlight) % pipeline] = now;
+            connection.inFlight++;
+        }
+        writeBuffer.flip();
+        connection.channel.write(writeBuffer);
+        if (writeBuffer.hasRemaining()) {
+            connection.unsent = ByteBuffer.allocate(writeBuffer.remaining());
+            connection.unsent.put(writeBuffer).flip();
+            connection.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        }
+    }
+
+    private void writeUnsent(Connection connection) throws IOException {
+        connection.channel.write(connection.unsent);
+        if (!connection.unsent.hasRemaining()) {
+            connection.unsent = null;
+            connection.key.interestOps(SelectionKey.OP_READ);
+        }
+    }
+
+    private void report(int seconds) {
+        System.out.printf("%d replies in %d s: %.0f per second, %d not OK%n",
+                replies, seconds, replies / (double) seconds, errors);
+        if (sampleCount == 0) {
+            return;
+        }
+        Arrays.sort(samples, 0, sampleCount);
+        System.out.printf("latency us: p50 %d, p90 %d, p99 %d, p99.9 %d, max %d%n",
+                percentile(0.50), percentile(0.90), percentile(0.99), percentile(0.999), samples[sampleCount - 1]);
+    }
+
+    private int percentile(double p) {
+        return samples[Math.min(sampleCount - 1, (int) (p * sampleCount))];
+    }
+
+    private static byte[][] lines(String... lines) {
+        byte[][] bytes = new byte[lines.length][];
+        for (int i = 0; i < lines.length; i++) {
+            bytes[i] = (lines[i] + "\n").getBytes(StandardCharsets.US_ASCII);
+        }
+        return bytes;
+    }
+}
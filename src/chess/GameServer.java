@@ -0,0 +1,429 @@
+package chess;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Plays games over TCP, one game per connection, with a line protocol.
+ *
+ * A client sends the same lines PlayChess reads from stdin ("e2 e4",
+ * "e7 e8 N", "g1 f3 draw?", "resign", "reset"), each ended by a newline,
+ * and gets one line back per line sent, in the same order:
+ *
+ *   OK rnbqkbnr/pppppppp/8/8/4P3/8/PPPP1PPP/RNBQKBNR
+ *   CHECK rnb1kbnr/pppp1ppp/8/4p3/6Pq/5P2/PPPPP2P/RNBQKBNR
+ *
+ * that is the ReturnPlay message (OK when there is none) and the board as
+ * the first field of a FEN. "quit" closes the connection once the replies
+ * to the lines before it are sent. A line longer than MAX_LINE is answered
+ * with ILLEGAL_MOVE.
+ *
+ * One thread runs a Selector over every connection and does all the
+ * reading and writing; the moves themselves are played by a SessionManager,
+ * which keeps each connection's game in order and spreads the games over
+ * the cores. Clients may pipeline: lines are read and handed on without
+ * waiting for the replies to earlier ones, up to MAX_PIPELINE at a time per
+ * connection; lines beyond that wait, already read, until replies free a
+ * place, and the connection is not read again until they are all handed
+ * on. Finished replies are collected on the selector thread, encoded into
+ * one shared buffer and written with as few writes as the socket allows;
+ * what a socket won't take yet is kept for that connection until it is
+ * writable again. Between the shared buffers and a few dozen bytes of
+ * line buffer, a connection costs little more than its game, so one server
+ * holds tens of thousands of them.
+ *
+ * Connections that have sent nothing for the idle timeout and have nothing
+ * in flight are closed and their games dropped.
+ *
+ * Usage:
+ *   java chess.GameServer [-port 7777] [-idle seconds]
+ *
+ * GameLoadClient drives a server with many connections and reports its
+ * throughput and latency.
+ */
+public class GameServer implements AutoCloseable {
+
+    public static final int DEFAULT_PORT = 7777;
+
+    /** Longest line read; no move or command is near it. */
+    static final int MAX_LINE = 64;
+
+    /** Lines a connection may have waiting for replies before it is no longer read. */
+    static final int MAX_PIPELINE = 32;
+
+    private static final int BUFFER_BYTES = 64 * 1024;
+    private static final int MAX_REPLY = 96; // message, space, board and newline, with room to spare
+    private static final long SWEEP_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private static final byte[][] MESSAGES = new byte[ReturnPlay.Message.values().length][];
+    private static final byte[] OK = "OK".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] BUSY = "BUSY".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] ERROR = "ERROR".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] LETTER = "PRNBQKprnbkq".getBytes(StandardCharsets.US_ASCII); // by PieceType ordinal
+
+    static {
+        for (ReturnPlay.Message message : ReturnPlay.Message.values()) {
+            MESSAGES[message.ordinal()] = message.name().getBytes(StandardCharsets.US_ASCII);
+        }
+    }
+
+    private final Selector selector;
+    private final ServerSocketChannel server;
+    private final SessionManager sessions;
+    private final long idleNanos;
+
+    // only touched by the selector thread
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+    private final ByteBuffer writeBuffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+    private final byte[] board = new byte[64];
+    private long nextSweep;
+
+    // connections with replies ready, handed over by whichever thread played the move
+    private final ConcurrentLinkedQueue<Connection> ready = new ConcurrentLinkedQueue<>();
+
+    private volatile boolean running = true;
+
+    /** One client and its game. */
+    private final class Connection {
+        final SocketChannel channel;
+        final SelectionKey key;
+        final long game;
+
+        final byte[] line = new byte[MAX_LINE];
+        int lineLength;                  // -1 while skipping the rest of a line that was too long
+        int inFlight;                    // lines handed to the game and not yet answered
+        boolean quitting;
+        long lastRead = System.nanoTime();
+        ByteBuffer unsent;               // what the socket wouldn't take yet, null if nothing
+        ByteBuffer unread;               // read past a full pipeline, null if nothing
+
+        // filled in by the threads that play the moves, emptied by the selector thread
+        final ConcurrentLinkedQueue<Object> replies = new ConcurrentLinkedQueue<>();
+        final AtomicBoolean queued = new AtomicBoolean();
+
+        Connection(SocketChannel channel, SelectionKey key, long game) {
+            this.channel = channel;
+            this.key = key;
+            this.game = game;
+        }
+
+        /** Called from any thread with the game's ReturnPlay, or why there is none. */
+        void reply(Object reply) {
+            replies.offer(reply);
+            if (queued.compareAndSet(false, true)) {
+                ready.offer(this);
+                selector.wakeup();
+            }
+        }
+    }
+
+    /**
+     * Listens on the port; serve then runs the server on the calling thread.
+     *
+     * @param idleSeconds how long a connection may stay quiet, 0 for ever
+     */
+    public GameServer(int port, long idleSeconds) throws IOException {
+        selector = Selector.open();
+        server = ServerSocketChannel.open();
+        server.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+        server.bind(new InetSocketAddress(port), 4096);
+        server.configureBlocking(false);
+        server.register(selector, SelectionKey.OP_ACCEPT);
+        sessions = new SessionManager(MAX_PIPELINE);
+        idleNanos = idleSeconds > 0 ? TimeUnit.SECONDS.toNanos(idleSeconds) : Long.MAX_VALUE;
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = DEFAULT_PORT;
+        long idle = 300;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-port") && i + 1 < args.length) {
+                port = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-idle") && i + 1 < args.length) {
+                idle = Long.parseLong(args[++i]);
+            } else {
+                System.err.println("usage: java chess.GameServer [-port " + DEFAULT_PORT + "] [-idle seconds]");
+                System.exit(2);
+            }
+        }
+        try (GameServer gameServer = new GameServer(port, idle)) {
+            System.out.println("listening on port " + gameServer.port());
+            gameServer.serve();
+        }
+    }
+
+    /** @return the port listened on, useful when it was 0 */
+    public int port() throws IOException {
+        return ((InetSocketAddress) server.getLocalAddress()).getPort();
+    }
+
+    /** Runs the selector loop until stop is called. */
+    public void serve() throws IOException {
+        nextSweep = System.nanoTime() + SWEEP_NANOS;
+        while (running) {
+            selector.select(1000);
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                if (!key.isValid()) {
+                    continue;
+                }
+                if (key.isAcceptable()) {
+                    accept();
+                    continue;
+                }
+                Connection connection = (Connection) key.attachment();
+                try {
+                    if (key.isWritable()) {
+                        writeUnsent(connection);
+                    }
+                    if (key.isValid() && key.isReadable()) {
+                        read(connection);
+                    }
+                } catch (IOException e) {
+                    close(connection);
+                }
+            }
+
+            Connection connection;
+            while ((connection = ready.poll()) != null) {
+                connection.queued.set(false);
+                try {
+                    flush(connection);
+                } catch (IOException e) {
+                    close(connection);
+                }
+            }
+
+            long now = System.nanoTime();
+            if (now - nextSweep >= 0) {
+                sweep(now);
+                nextSweep = now + SWEEP_NANOS;
+            }
+        }
+    }
+
+    /** Makes serve return, from any thread. */
+    public void stop() {
+        running = false;
+        selector.wakeup();
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (SelectionKey key : selector.keys()) {
+            key.channel().close();
+        }
+        selector.close();
+        sessions.close();
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = server.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+            key.attach(new Connection(channel, key, sessions.create()));
+        }
+    }
+
+    private void read(Connection connection) throws IOException {
+        readBuffer.clear();
+        int read = connection.channel.read(readBuffer);
+        if (read < 0) {
+            close(connection);
+            return;
+        }
+        connection.lastRead = System.nanoTime();
+        readBuffer.flip();
+        scan(connection, readBuffer);
+        if (readBuffer.hasRemaining() && !connection.quitting) {
+            // the pipeline is full; the rest waits for replies to free a place
+            connection.unread = ByteBuffer.allocate(readBuffer.remaining());
+            connection.unread.put(readBuffer).flip();
+        }
+        updateInterest(connection);
+    }
+
+    /**
+     * Splits the bytes into lines and hands them on while the pipeline has
+     * room. Bytes after quit are dropped, a line after it is never answered.
+     */
+    private void scan(Connection connection, ByteBuffer in) {
+        while (in.hasRemaining() && !connection.quitting && connection.inFlight < MAX_PIPELINE) {
+            byte b = in.get();
+            if (b == '\n') {
+                dispatch(connection);
+            } else if (connection.lineLength >= 0) {
+                if (connection.lineLength == MAX_LINE) {
+                    connection.lineLength = -1; // too long, skip to the end of it
+                } else {
+                    connection.line[connection.lineLength++] = b;
+                }
+            }
+        }
+    }
+
+    /** Hands one complete line to the connection's game. */
+    private void dispatch(Connection connection) {
+        // a line that was too long goes through as an empty one, which the
+        // game answers with ILLEGAL_MOVE in its turn
+        int length = Math.max(connection.lineLength, 0);
+        connection.lineLength = 0;
+        if (length > 0 && connection.line[length - 1] == '\r') {
+            length--;
+        }
+        if (length == 4 && connection.line[0] == 'q' && connection.line[1] == 'u'
+                && connection.line[2] == 'i' && connection.line[3] == 't') {
+            connection.quitting = true;
+            return;
+        }
+        connection.inFlight++;
+        CompletableFuture<ReturnPlay> result = sessions.submit(connection.game,
+                new String(connection.line, 0, length, StandardCharsets.ISO_8859_1));
+        result.whenComplete((play, failure) -> connection.reply(failure != null ? failure : play));
+    }
+
+    /** Encodes the replies that are ready and writes them. */
+    private void flush(Connection connection) throws IOException {
+        if (!connection.channel.isOpen()) {
+            return;
+        }
+        while (connection.unsent == null && !connection.replies.isEmpty()) {
+            writeBuffer.clear();
+            Object reply;
+            while (writeBuffer.remaining() >= MAX_REPLY && (reply = connection.replies.poll()) != null) {
+                encode(reply, writeBuffer);
+                connection.inFlight--;
+            }
+            writeBuffer.flip();
+            connection.channel.write(writeBuffer);
+            if (writeBuffer.hasRemaining()) {
+                // the socket is full; keep the rest for when it is writable again
+                connection.unsent = ByteBuffer.allocate(writeBuffer.remaining());
+                connection.unsent.put(writeBuffer).flip();
+            }
+        }
+        if (connection.unread != null) {
+            // replies freed places in the pipeline for lines already read
+            scan(connection, connection.unread);
+            if (!connection.unread.hasRemaining() || connection.quitting) {
+                connection.unread = null;
+            }
+        }
+        updateInterest(connection);
+    }
+
+    private void writeUnsent(Connection connection) throws IOException {
+        if (connection.unsent != null) {
+            connection.channel.write(connection.unsent);
+            if (connection.unsent.hasRemaining()) {
+                return;
+            }
+            connection.unsent = null;
+        }
+        flush(connection);
+    }
+
+    /** Reads while the pipeline has room and nothing read is left over, writes while something is unsent, closes after quit. */
+    private void updateInterest(Connection connection) throws IOException {
+        if (!connection.key.isValid()) {
+            return;
+        }
+        if (connection.quitting && connection.inFlight == 0 && connection.unsent == null) {
+            close(connection);
+            return;
+        }
+        int ops = 0;
+        if (!connection.quitting && connection.unread == null && connection.inFlight < MAX_PIPELINE) {
+            ops |= SelectionKey.OP_READ;
+        }
+        if (connection.unsent != null) {
+            ops |= SelectionKey.OP_WRITE;
+        }
+        if (connection.key.interestOps() != ops) {
+            connection.key.interestOps(ops);
+        }
+    }
+
+    /** Writes one reply line: the message and the board. */
+    private void encode(Object reply, ByteBuffer out) {
+        if (reply instanceof Throwable) {
+            Throwable failure = (Throwable) reply;
+            if (failure instanceof CompletionException) {
+                failure = failure.getCause();
+            }
+            out.put(failure instanceof RejectedExecutionException ? BUSY : ERROR).put((byte) '\n');
+            return;
+        }
+        ReturnPlay play = (ReturnPlay) reply;
+        out.put(play.message == null ? OK : MESSAGES[play.message.ordinal()]).put((byte) ' ');
+
+        Arrays.fill(board, (byte) 0);
+        for (ReturnPiece piece : play.piecesOnBoard) {
+            board[Position.square(piece.pieceFile, piece.pieceRank)] = LETTER[piece.pieceType.ordinal()];
+        }
+        for (int rank = 8; rank >= 1; rank--) {
+            int empty = 0;
+            for (int file = 0; file < 8; file++) {
+                byte letter = board[Position.square(file, rank)];
+                if (letter == 0) {
+                    empty++;
+                    continue;
+                }
+                if (empty > 0) {
+                    out.put((byte) ('0' + empty));
+                    empty = 0;
+                }
+                out.put(letter);
+            }
+            if (empty > 0) {
+                out.put((byte) ('0' + empty));
+            }
+            if (rank > 1) {
+                out.put((byte) '/');
+            }
+        }
+        out.put((byte) '\n');
+    }
+
+    /** Closes connections that have been quiet for too long with nothing in flight. */
+    private void sweep(long now) {
+        for (SelectionKey key : selector.keys()) {
+            Object attachment = key.attachment();
+            if (attachment instanceof Connection) {
+                Connection connection = (Connection) attachment;
+                if (connection.inFlight == 0 && now - connection.lastRead > idleNanos) {
+                    close(connection);
+                }
+            }
+        }
+    }
+
+    private void close(Connection connection) {
+        connection.key.cancel();
+        try {
+            connection.channel.close();
+        } catch (IOException e) {
+            // closing anyway
+        }
+        sessions.evict(connection.game);
+    }
+}
@@ -1,30 +1,105 @@
 package chess;
 
+/**
+ * Reads what a player types into Chess.play:
+ *
+ *   e2 e4            a move, from and to square
+ *   e7 e8 N          a promotion, to N, B, R or Q (a queen if left out)
+ *   e2 e4 draw?      a move that also offers a draw
+ *   resign
+ *   reset
+ *
+ * Letters may be in either case and spaces before and after are ignored,
+ * but the parts must be one space apart. parse looks at each character once,
+ * in a single pass with no regexes, lowercased copies or substrings, and
+ * answers with an int: the packed move (see Move), possibly with
+ * DRAW_OFFER set, or one of the negative codes below.
+ */
 public class InputValidation {
-    
-    public static boolean inputCheck(String move){
 
-        if (move.length() < 5){
-            return false;
+    /** Not a move or command. */
+    public static final int INVALID = -1;
+    public static final int RESIGN = -2;
+    public static final int RESET = -3;
+
+    /** Set on a move that ends in " draw?"; outside the bits Move uses. */
+    public static final int DRAW_OFFER = 1 << 30;
+
+    private static final String PROMO_LETTERS = "nbrq"; // Move.PROMO_KNIGHT .. PROMO_QUEEN, less one
+    private static final String DRAW = " draw?";
+
+    public static boolean inputCheck(CharSequence move) {
+        return parse(move) != INVALID;
+    }
+
+    /**
+     * @return the packed move, with DRAW_OFFER if a draw was offered, or
+     *         RESIGN, RESET or INVALID
+     */
+    public static int parse(CharSequence input) {
+        int start = 0;
+        int end = input.length();
+        while (start < end && input.charAt(start) <= ' ') {
+            start++;
         }
+        while (end > start && input.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        int length = end - start;
 
-        String moveFrom = move.substring(0, 2);   //example: "a1 a2" -> "a1" "a2"
-        String moveTo = move.substring(3, 5);
+        if (length == 6 && matches(input, start, "resign")) {
+            return RESIGN;
+        }
+        if (length == 5 && matches(input, start, "reset")) {
+            return RESET;
+        }
 
-        if (moveFrom == moveTo){
-            return false;
-        }else{
-            switch(move.toLowerCase().trim()){
-                case "reset":
-                case "resign":
-                    return true;
-            default:
-                return isValidInputFormat(move);
+        // squares: [a-h][1-8] [a-h][1-8]
+        if (length < 5 || input.charAt(start + 2) != ' ') {
+            return INVALID;
+        }
+        int from = square(input, start);
+        int to = square(input, start + 3);
+        if (from < 0 || to < 0) {
+            return INVALID;
+        }
+        int i = start + 5;
+
+        // promotion: " " [NBRQ], unless it is the start of " draw?"
+        int promotion = Move.PROMO_NONE;
+        if (end - i >= 2 && input.charAt(i) == ' ' && (end - i == 2 || input.charAt(i + 2) == ' ')) {
+            int index = PROMO_LETTERS.indexOf(Character.toLowerCase(input.charAt(i + 1)));
+            if (index < 0) {
+                return INVALID;
             }
+            promotion = index + 1;
+            i += 2;
+        }
+
+        int flags = 0;
+        if (end - i == DRAW.length() && matches(input, i, DRAW)) {
+            flags = DRAW_OFFER;
+            i = end;
         }
+        return i == end ? Move.of(from, to, promotion, flags) : INVALID;
     }
 
-    private static boolean isValidInputFormat(String input) {
-		return input.matches("^[a-h][1-8] [a-h][1-8]( [NBRQ])?( draw\\?)?$");
-	}
+    private static int square(CharSequence input, int at) {
+        int file = (input.charAt(at) | 0x20) - 'a'; // either case
+        int rank = input.charAt(at + 1) - '1';
+        if (file < 0 || file > 7 || rank < 0 || rank > 7) {
+            return -1;
+        }
+        return rank * 8 + file;
+    }
+
+    // whether the text at offset is the lowercase word, ignoring case
+    private static boolean matches(CharSequence input, int offset, String word) {
+        for (int i = 0; i < word.length(); i++) {
+            if (Character.toLowerCase(input.charAt(offset + i)) != word.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
 }
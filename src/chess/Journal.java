@@ -0,0 +1,714 @@
+package chess;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.zip.CRC32C;
+
+/**
+ * Write-ahead log of the games a SessionManager hosts, so they survive the
+ * process dying.
+ *
+ * Every move ProcessMove accepts is appended as a record tagged with its
+ * game's id, along with games being started, reset, loaded from FEN and
+ * dropped. Appending only copies the record into memory; a background
+ * thread writes whatever has piled up from all the games in one go and
+ * forces it to disk, then waits fsyncMillis before the next round. Each
+ * fsync so covers every game's moves since the last one, and no move waits
+ * for another game's flush. SessionManager holds a move's reply back until
+ * the record is on disk (see whenDurable), so an answered move is never
+ * lost. If writing or forcing ever fails the journal stops for good: every
+ * move still waiting, and every one after, fails with the IOException, and
+ * SessionManager plays no more moves.
+ *
+ * The log is a directory of segments, journal-00000001.log and up, and a
+ * checkpoint file naming the first segment still needed. A checkpoint
+ * starts a new segment, writes each live game out as FEN, and then deletes
+ * the older segments, which keeps recovery short however long the server
+ * has been up. Opening a journal recovers: the games in the checkpoint are
+ * loaded and the segments after it replayed through ProcessMove.
+ *
+ * Each record counts the game's records so far, so one written to the new
+ * segment before the game's snapshot was taken is not replayed twice. A
+ * record that doesn't check out at the end of the last segment was torn by
+ * the crash; it and anything after it are cut off. Anywhere else it is an
+ * IOException.
+ *
+ * All numbers are little-endian.
+ *
+ *   segment header, 8 bytes
+ *     0  int    magic "CHJL"
+ *     4  int    version (1)
+ *
+ *   record
+ *     0  int    CRC32C of record bytes 4 to the end
+ *     4  short  length of the payload
+ *     6  byte   type, START, MOVE, LOAD or END
+ *     7  byte   unused
+ *     8  long   game id
+ *    16  int    how many records the game has had, this one included
+ *    20         payload: the packed move (int) for MOVE, the FEN for LOAD
+ *
+ *   checkpoint
+ *     0  int    magic "CHCP"
+ *     4  int    version (1)
+ *     8  long   first segment to replay
+ *    16  int    number of games
+ *    20         per game: long id, int records, short FEN length, FEN
+ *           int    CRC32C of everything before it
+ *
+ * Usage:
+ *   java chess.Journal dir
+ * recovers the journal in dir, cutting off a torn tail, and reports how
+ * fast it replayed.
+ */
+public class Journal implements AutoCloseable {
+
+    static final int START = 1;
+    static final int MOVE = 2;
+    static final int LOAD = 3;
+    static final int END = 4;
+
+    static final int MAGIC = 'C' | ('H' << 8) | ('J' << 16) | ('L' << 24);
+    static final int CHECKPOINT_MAGIC = 'C' | ('H' << 8) | ('C' << 16) | ('P' << 24);
+    static final int VERSION = 1;
+    static final int SEGMENT_HEADER_BYTES = 8;
+    static final int RECORD_HEADER_BYTES = 20;
+    static final int MAX_PAYLOAD = 256; // a FEN is under 100 characters
+
+    private static final String CHECKPOINT = "checkpoint";
+
+    private final Path dir;
+    private final long fsyncMillis;
+    private final Thread flusher;
+    private final Map<Long, Game> recovered;
+    private final Recovery recovery;
+
+    // appenders fill pending under this journal's lock; the flusher swaps it for spare
+    private ByteBuffer pending = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+    private ByteBuffer spare = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+    private final CRC32C crc = new CRC32C();
+    private long appended;  // bytes ever appended, counting across segments
+    private long durable;   // how many of those are on disk
+    private long waiterCount;
+    private final PriorityQueue<Waiter> waiters = new PriorityQueue<>();
+    private final ArrayDeque<Runnable> ready = new ArrayDeque<>(); // waiters' actions due to run, in order
+    private boolean releasing; // a thread is running ready's actions
+    private boolean closed;
+    private IOException failure; // once writing fails, nothing more is kept and every waiter fails
+
+    // held while the current segment is written to or replaced
+    private final Object io = new Object();
+    private FileChannel segment;
+    private long segmentNumber;
+    private long firstSegment; // the checkpoint's, 0 if there was none
+
+    /** An action waiting for the journal to be on disk up to a position. */
+    private static final class Waiter implements Comparable<Waiter> {
+        final long position;
+        final long order; // in the order they came, for waiters on the same position
+        final Runnable action;
+        final Consumer<IOException> failed;
+
+        Waiter(long position, long order, Runnable action, Consumer<IOException> failed) {
+            this.position = position;
+            this.order = order;
+            this.action = action;
+            this.failed = failed;
+        }
+
+        @Override
+        public int compareTo(Waiter other) {
+            int byPosition = Long.compare(position, other.position);
+            return byPosition != 0 ? byPosition : Long.compare(order, other.order);
+        }
+    }
+
+    /** One live game as a checkpoint has it. */
+    static final class Snapshot {
+        final long id;
+        final int records;
+        final String fen;
+
+        Snapshot(long id, int records, String fen) {
+            this.id = id;
+            this.records = records;
+            this.fen = fen;
+        }
+    }
+
+    /** What recovery found. */
+    public static final class Recovery {
+        long checkpointGames;
+        long records;
+        long moves;
+        long truncated; // bytes cut off a torn tail
+        long nanos;
+        int games;
+
+        @Override
+        public String toString() {
+            double seconds = Math.max(nanos, 1) / 1e9;
+            return games + " games (" + checkpointGames + " from the checkpoint), " + records + " records, "
+                    + moves + " moves replayed in " + TimeUnit.NANOSECONDS.toMillis(nanos) + " ms, "
+                    + String.format("%.0f", moves / seconds) + " moves/s"
+                    + (truncated > 0 ? ", torn tail of " + truncated + " bytes cut off" : "");
+        }
+    }
+
+    /**
+     * Opens the journal in dir, creating it if needed, and recovers the games
+     * in it (see recovered).
+     *
+     * @param fsyncMillis how long the flusher waits between group commits; 0
+     *                    flushes as soon as anything is appended
+     * @throws IOException if the journal is damaged other than at its tail
+     */
+    public Journal(Path dir, long fsyncMillis) throws IOException {
+        this.dir = dir;
+        this.fsyncMillis = fsyncMillis;
+        Files.createDirectories(dir);
+        recovery = new Recovery();
+        recovered = recover();
+
+        List<Long> segments = segments();
+        if (segments.isEmpty()) {
+            openSegment(Math.max(1, firstSegment));
+        } else {
+            segmentNumber = segments.get(segments.size() - 1);
+            segment = FileChannel.open(segmentPath(segmentNumber), StandardOpenOption.WRITE);
+            segment.position(segment.size());
+        }
+
+        flusher = new Thread(this::flushLoop, "journal-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("usage: java chess.Journal dir");
+            System.exit(2);
+        }
+        try (Journal journal = new Journal(Paths.get(args[0]), 0)) {
+            System.out.println("recovered " + journal.recovery());
+        }
+    }
+
+    /**
+     * Hands over the games recovery rebuilt, by id, each with its record
+     * count set and not yet writing to this journal. Only the first call
+     * gets them.
+     */
+    public synchronized Map<Long, Game> recovered() {
+        Map<Long, Game> games = new HashMap<>(recovered);
+        recovered.clear();
+        return games;
+    }
+
+    public Recovery recovery() {
+        return recovery;
+    }
+
+    // appending, from any thread
+
+    /** @return the journal position just past the record */
+    long start(long game, int records) {
+        return append(START, game, records, 0, null);
+    }
+
+    long move(long game, int records, int move) {
+        return append(MOVE, game, records, move, null);
+    }
+
+    long load(long game, int records, String fen) {
+        return append(LOAD, game, records, 0, fen);
+    }
+
+    long end(long game) {
+        return append(END, game, 0, 0, null);
+    }
+
+    private synchronized long append(int type, long game, int records, int move, String fen) {
+        if (failure != null) {
+            return durable;
+        }
+        int payload = type == MOVE ? 4 : type == LOAD ? fen.length() : 0;
+        if (payload > MAX_PAYLOAD) {
+            throw new IllegalArgumentException("FEN too long for the journal: " + fen);
+        }
+        int length = RECORD_HEADER_BYTES + payload;
+        if (pending.remaining() < length) {
+            ByteBuffer bigger = ByteBuffer.allocate(Math.max(pending.capacity() * 2, length)).order(ByteOrder.LITTLE_ENDIAN);
+            pending.flip();
+            pending = bigger.put(pending);
+        }
+        int start = pending.position();
+        pending.putInt(0).putShort((short) payload).put((byte) type).put((byte) 0).putLong(game).putInt(records);
+        if (type == MOVE) {
+            pending.putInt(move);
+        } else if (type == LOAD) {
+            pending.put(fen.getBytes(StandardCharsets.US_ASCII));
+        }
+        crc.reset();
+        crc.update(pending.array(), start + 4, length - 4);
+        pending.putInt(start, (int) crc.getValue());
+        appended += length;
+        if (start == 0) {
+            notifyAll(); // the flusher may be waiting for something to write
+        }
+        return appended;
+    }
+
+    /**
+     * Runs the action once everything up to position is on disk: straight
+     * away if it already is, otherwise on the flusher thread. Actions run
+     * without this journal's lock, in position order, and in the order given
+     * for the same position. If the journal fails first, or already has,
+     * failed is called with why instead.
+     */
+    public void whenDurable(long position, Runnable action, Consumer<IOException> failed) {
+        boolean release;
+        synchronized (this) {
+            if (failure != null) {
+                IOException why = failure;
+                release = ready(() -> failed.accept(why));
+            } else if (position <= durable) {
+                release = ready(action);
+            } else {
+                waiters.add(new Waiter(position, waiterCount++, action, failed));
+                return;
+            }
+        }
+        if (release) {
+            release();
+        }
+    }
+
+    /** @return why the journal stopped, null while it is working */
+    public synchronized IOException failure() {
+        return failure;
+    }
+
+    // group commit
+
+    private void flushLoop() {
+        try {
+            for (;;) {
+                synchronized (this) {
+                    while (pending.position() == 0 && !closed) {
+                        wait();
+                    }
+                    if (pending.position() == 0) {
+                        return;
+                    }
+                }
+                flush();
+                // let the next batch gather
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(fsyncMillis);
+                synchronized (this) {
+                    long left;
+                    while (!closed && (left = deadline - System.nanoTime()) > 0) {
+                        TimeUnit.NANOSECONDS.timedWait(this, left);
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            // closing
+        } catch (IOException e) {
+            // flush has failed the waiters; nothing more can be written
+        }
+    }
+
+    /** Writes and forces what has been appended so far, then lets its waiters go. */
+    private void flush() throws IOException {
+        IOException failed = null;
+        boolean release;
+        synchronized (io) {
+            ByteBuffer batch;
+            long end;
+            synchronized (this) {
+                batch = pending;
+                pending = spare;
+                spare = batch;
+                end = appended;
+            }
+            batch.flip();
+            try {
+                while (batch.hasRemaining()) {
+                    segment.write(batch);
+                }
+                segment.force(false);
+                batch.clear();
+                synchronized (this) {
+                    release = acknowledge(end);
+                }
+            } catch (IOException e) {
+                failed = e;
+                release = fail(e);
+            }
+        }
+        // the waiters run with no lock held, so a slow one holds up neither appends nor the next flush
+        if (release) {
+            release();
+        }
+        if (failed != null) {
+            throw failed;
+        }
+    }
+
+    // holding this journal's lock; true if the caller has to release
+    private boolean acknowledge(long end) {
+        durable = end;
+        boolean release = false;
+        while (!waiters.isEmpty() && waiters.peek().position <= durable) {
+            release |= ready(waiters.poll().action);
+        }
+        return release;
+    }
+
+    /** Stops the journal: what is appended is dropped and everyone waiting is told. */
+    private synchronized boolean fail(IOException e) {
+        if (failure == null) {
+            failure = e;
+            System.err.println("journal: " + e + "; no more moves are played");
+        }
+        pending.clear();
+        IOException why = failure;
+        boolean release = false;
+        while (!waiters.isEmpty()) {
+            Consumer<IOException> failed = waiters.poll().failed;
+            release |= ready(() -> failed.accept(why));
+        }
+        return release;
+    }
+
+    // holding this journal's lock; true if nobody is running ready's actions, so the caller has to
+    private boolean ready(Runnable action) {
+        ready.add(action);
+        if (releasing) {
+            return false;
+        }
+        releasing = true;
+        return true;
+    }
+
+    /** Runs ready's actions, outside the lock, until there are none left. */
+    private void release() {
+        for (;;) {
+            Runnable action;
+            synchronized (this) {
+                action = ready.poll();
+                if (action == null) {
+                    releasing = false;
+                    return;
+                }
+            }
+            action.run();
+        }
+    }
+
+    // checkpoints
+
+    /**
+     * Flushes and starts a new segment. Records appended from here on go to
+     * it; the snapshots for the checkpoint should be taken after this.
+     *
+     * @return the new segment's number, for checkpoint
+     */
+    long roll() throws IOException {
+        synchronized (io) {
+            flush();
+            segment.close();
+            openSegment(segmentNumber + 1);
+            return segmentNumber;
+        }
+    }
+
+    /**
+     * Writes the games out as the new checkpoint and deletes the segments
+     * before firstSegment. Each snapshot has to have been taken after the
+     * roll that returned firstSegment.
+     */
+    void checkpoint(long firstSegment, Collection<Snapshot> games) throws IOException {
+        int bytes = 24;
+        for (Snapshot game : games) {
+            bytes += 14 + game.fen.length();
+        }
+        ByteBuffer out = ByteBuffer.allocate(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        out.putInt(CHECKPOINT_MAGIC).putInt(VERSION).putLong(firstSegment).putInt(games.size());
+        for (Snapshot game : games) {
+            out.putLong(game.id).putInt(game.records).putShort((short) game.fen.length())
+                    .put(game.fen.getBytes(StandardCharsets.US_ASCII));
+        }
+        CRC32C sum = new CRC32C();
+        sum.update(out.array(), 0, out.position());
+        out.putInt((int) sum.getValue()).flip();
+
+        // write it aside and rename it over the old one, so there always is a whole checkpoint
+        Path temporary = dir.resolve(CHECKPOINT + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            while (out.hasRemaining()) {
+                channel.write(out);
+            }
+            channel.force(true);
+        }
+        Files.move(temporary, dir.resolve(CHECKPOINT), StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+        forceDirectory(); // the rename has to be down before the segments it replaces go
+        for (long number : segments()) {
+            if (number < firstSegment) {
+                Files.delete(segmentPath(number));
+            }
+        }
+    }
+
+    /** Stops the flusher once everything appended is on disk. */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (io) {
+            if (pending.position() > 0 && failure == null) {
+                flush();
+            }
+            segment.close();
+        }
+    }
+
+    // recovery
+
+    private Map<Long, Game> recover() throws IOException {
+        long started = System.nanoTime();
+        Map<Long, Game> games = new HashMap<>();
+        firstSegment = readCheckpoint(games);
+        recovery.checkpointGames = games.size();
+
+        List<Long> segments = segments();
+        ByteBuffer buffer = ByteBuffer.allocate(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < segments.size(); i++) {
+            long number = segments.get(i);
+            if (number >= firstSegment) {
+                replay(number, i == segments.size() - 1, games, buffer);
+            }
+        }
+        recovery.games = games.size();
+        recovery.nanos = System.nanoTime() - started;
+        return games;
+    }
+
+    /** @return the first segment to replay, 0 if there is no checkpoint */
+    private long readCheckpoint(Map<Long, Game> games) throws IOException {
+        Path file = dir.resolve(CHECKPOINT);
+        if (!Files.exists(file)) {
+            return 0;
+        }
+        ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(file)).order(ByteOrder.LITTLE_ENDIAN);
+        CRC32C sum = new CRC32C();
+        sum.update(in.array(), 0, Math.max(in.limit() - 4, 0));
+        if (in.limit() < 24 || in.getInt(0) != CHECKPOINT_MAGIC || in.getInt(4) != VERSION
+                || in.getInt(in.limit() - 4) != (int) sum.getValue()) {
+            throw new IOException(file + " is not a valid checkpoint");
+        }
+        in.position(8);
+        long first = in.getLong();
+        int count = in.getInt();
+        byte[] fen = new byte[MAX_PAYLOAD];
+        for (int i = 0; i < count; i++) {
+            long id = in.getLong();
+            int records = in.getInt();
+            int length = in.getShort() & 0xFFFF;
+            in.get(fen, 0, length);
+            Game game = new Game();
+            game.load(new String(fen, 0, length, StandardCharsets.US_ASCII));
+            game.journalTo(null, id, records);
+            games.put(id, game);
+        }
+        return first;
+    }
+
+    private void replay(long number, boolean last, Map<Long, Game> games, ByteBuffer buffer) throws IOException {
+        Path path = segmentPath(number);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long size = channel.size();
+            buffer.clear().limit(SEGMENT_HEADER_BYTES);
+            long read = readFully(channel, buffer, 0);
+            if (read < SEGMENT_HEADER_BYTES) {
+                if (!last) {
+                    throw new IOException(path + " has no header");
+                }
+                recovery.truncated += size;
+                writeSegmentHeader(channel); // the crash came before the header was down
+                return;
+            }
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                throw new IOException(path + " is not a journal segment");
+            }
+
+            long offset = SEGMENT_HEADER_BYTES; // of the next record
+            buffer.clear();
+            for (;;) {
+                read += readFully(channel, buffer, read);
+                buffer.flip();
+                boolean damaged = false;
+                while (buffer.remaining() >= RECORD_HEADER_BYTES) {
+                    int at = buffer.position();
+                    int payload = buffer.getShort(at + 4) & 0xFFFF;
+                    int length = RECORD_HEADER_BYTES + payload;
+                    if (payload > MAX_PAYLOAD) {
+                        damaged = true;
+                        break;
+                    }
+                    if (buffer.remaining() < length) {
+                        break; // the rest of it is in the next read
+                    }
+                    crc.reset();
+                    crc.update(buffer.array(), at + 4, length - 4);
+                    if (buffer.getInt(at) != (int) crc.getValue()) {
+                        damaged = true;
+                        break;
+                    }
+                    apply(buffer, at, payload, games);
+                    buffer.position(at + length);
+                    offset += length;
+                }
+                if (!damaged && read < size) {
+                    buffer.compact();
+                    continue;
+                }
+                if (offset < size) {
+                    // a record that doesn't check out, or only part of one
+                    if (!last) {
+                        throw new IOException(path + " is damaged at byte " + offset);
+                    }
+                    recovery.truncated += size - offset;
+                    channel.truncate(offset);
+                    channel.force(true);
+                }
+                return;
+            }
+        }
+    }
+
+    /** Reads from the file position until the buffer is full or the file ends. */
+    private static long readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        long total = 0;
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + total);
+            if (read < 0) {
+                break;
+            }
+            total += read;
+        }
+        return total;
+    }
+
+    private void apply(ByteBuffer record, int at, int payload, Map<Long, Game> games) throws IOException {
+        int type = record.get(at + 6);
+        long id = record.getLong(at + 8);
+        int records = record.getInt(at + 16);
+        recovery.records++;
+        if (type == END) {
+            games.remove(id);
+            return;
+        }
+        Game game = games.get(id);
+        if (game == null) {
+            game = new Game();
+            games.put(id, game);
+        } else if (records <= game.journalRecords()) {
+            return; // already in the checkpoint
+        }
+        switch (type) {
+            case START:
+                game.start();
+                break;
+            case MOVE:
+                int move = record.getInt(at + RECORD_HEADER_BYTES);
+                if (ProcessMove.processMove(game, move) == ReturnPlay.Message.ILLEGAL_MOVE) {
+                    throw new IOException("game " + id + ": journaled move " + Move.toString(move) + " is illegal");
+                }
+                recovery.moves++;
+                break;
+            case LOAD:
+                byte[] fen = new byte[payload];
+                record.get(at + RECORD_HEADER_BYTES, fen);
+                game.load(new String(fen, StandardCharsets.US_ASCII));
+                break;
+            default:
+                throw new IOException("game " + id + ": unknown journal record type " + type);
+        }
+        game.journalTo(null, id, records);
+    }
+
+    // segments
+
+    private void openSegment(long number) throws IOException {
+        segmentNumber = number;
+        segment = FileChannel.open(segmentPath(number), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        writeSegmentHeader(segment);
+        forceDirectory(); // or the new file may not be there after a crash, whatever was forced into it
+    }
+
+    /** Forces the directory's entries to disk, so files created or renamed in it stay. */
+    private void forceDirectory() throws IOException {
+        try (FileChannel directory = FileChannel.open(dir, StandardOpenOption.READ)) {
+            directory.force(true);
+        }
+    }
+
+    private static void writeSegmentHeader(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(SEGMENT_HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION).flip();
+        channel.truncate(0);
+        channel.write(header, 0);
+        channel.position(SEGMENT_HEADER_BYTES);
+        channel.force(true);
+    }
+
+    private Path segmentPath(long number) {
+        return dir.resolve(String.format("journal-%08d.log", number));
+    }
+
+    /** @return the segment numbers in the directory, in order */
+    private List<Long> segments() throws IOException {
+        List<Long> numbers = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "journal-*.log")) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    numbers.add(Long.parseLong(name.substring("journal-".length(), name.length() - ".log".length())));
+                } catch (NumberFormatException e) {
+                    // not one of ours
+                }
+            }
+        }
+        numbers.sort(null);
+        return numbers;
+    }
+}
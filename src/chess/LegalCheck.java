@@ -1,27 +1,23 @@
 package chess;
-import java.util.ArrayList;
 import chess.ReturnPiece.PieceType;
 
 
 public class LegalCheck {
 
-  public static boolean isLegalMove(String move, ArrayList<ReturnPiece> board) {
+  public static boolean isLegalMove(int move, Position board) {
 
-    // Parse move
-    String startPos = move.substring(0, 2);
-    String endPos = move.substring(3, 5);
-    // Get piece that is moving
-    ReturnPiece movingPiece = null;
-    for (ReturnPiece piece : board) {
-      if ((piece.pieceFile.name() + piece.pieceRank).equals(startPos)) {
-        movingPiece = piece;
-        break;
-      }
+    // Unpack move
+    int startPos = Move.from(move);
+    int endPos = Move.to(move);
+    if (startPos == endPos) {
+      return false;
     }
+    // Get piece that is moving
+    PieceType movingPiece = board.pieceAt(startPos);
 
     // Check if move is legal for that piece
     if (movingPiece != null) {
-      switch (movingPiece.pieceType) {
+      switch (movingPiece) {
         case WP:
         case BP:
           return isLegalPawnMove(movingPiece, startPos, endPos, board);
@@ -49,42 +45,38 @@ public class LegalCheck {
   // Implement legality check for each piece type
   // Examples:
 
-  private static boolean isLegalPawnMove(ReturnPiece pawn, String start, String end, ArrayList<ReturnPiece> board) {
+  private static boolean isLegalPawnMove(PieceType pawn, int start, int end, Position board) {
 
-    if (!Chess.isMoveValidBasedOnColor(pawn, end)) {
+    if (!Chess.isMoveValidBasedOnColor(pawn, end, board)) {
       return false; // Invalid move based on piece color
     }
     // Direction of the move depends on the piece color
-    int direction = (pawn.pieceType == PieceType.WP) ? 1 : -1;
+    int direction = (pawn == PieceType.WP) ? 1 : -1;
 
 
-    // Parse the file (column) and rank (row) of the start and end positions
-    char startFile = start.charAt(0);
-    char endFile = end.charAt(0);
-    int startRank = Character.getNumericValue(start.charAt(1));
-    int endRank = Character.getNumericValue(end.charAt(1));
+    // Split the start and end squares into file (column) and rank (row)
+    int startFile = Position.fileOf(start);
+    int endFile = Position.fileOf(end);
+    int startRank = Position.rankOf(start);
+    int endRank = Position.rankOf(end);
 
     if (Math.abs(startFile - endFile) == 1 && endRank == startRank + direction) {
       // Check for normal capture
-      if (isSquareOccupiedByOpponent(end, board, pawn.pieceType)) {
-          // Also, remove the captured piece
-          ReturnPiece capturedPiece = Chess.getPieceAt(end);
-          Chess.board.remove(capturedPiece);
+      // (the captured piece is taken off the board by ProcessMove, this is only a check)
+      if (isSquareOccupiedByOpponent(end, board, pawn)) {
           return true;
       }
       // Check for en passant
-      if (EnPassant.canEnPassant(pawn, end)) {
-        // Also, remove the pawn being captured en passant
-        ReturnPiece capturedPawn = Chess.getPieceAt(String.valueOf(endFile) + startRank);
-        Chess.board.remove(capturedPawn);
+      if (EnPassant.canEnPassant(pawn, start, end, board)) {
         return true;
     }
   }
 
-    // Initial pawn move: two squares forward from the starting position
-    if (!Chess.hasMoved.getOrDefault(pawn, false) && endRank == startRank + 2 * direction) {
+    // Initial pawn move: two squares forward from the starting position (a pawn still on rank 2/7 has never moved)
+    int homeRank = (pawn == PieceType.WP) ? 2 : 7;
+    if (startRank == homeRank && startFile == endFile && endRank == startRank + 2 * direction) {
       // Check if both the destination square and the square in between are empty
-      String intermediateSquare = String.valueOf(startFile) + (startRank + direction);
+      int intermediateSquare = start + 8 * direction;
       if (!isSquareOccupied(intermediateSquare, board) && !isSquareOccupied(end, board)) {
         return true;
       }
@@ -97,58 +89,34 @@ public class LegalCheck {
       }
     }
 
-    // Pawn capturing moves: diagonal
-    if (Math.abs(startFile - endFile) == 1 && endRank == startRank + direction) {
-      // Check if the destination square contains an opponent's piece
-      if (isSquareOccupiedByOpponent(end, board, pawn.pieceType)) {
-        return true;
-      }
-    }
-
     return false;
   }
 
-  private static boolean isLegalRookMove(ReturnPiece rook, String start, String end, ArrayList<ReturnPiece> board) {
+  private static boolean isLegalRookMove(PieceType rook, int start, int end, Position board) {
     // Rook move rules
-    // Parse files
-    if (!Chess.isMoveValidBasedOnColor(rook, end)) {
+    if (!Chess.isMoveValidBasedOnColor(rook, end, board)) {
       return false; // Invalid move based on piece color
     }
-    char startFile = start.charAt(0);
-    char endFile = end.charAt(0);
-    int startRank = Character.getNumericValue(start.charAt(1));
-    int endRank = Character.getNumericValue(end.charAt(1));
-
-    // check if move is horizontal or vertical
-    if (startFile == endFile || startRank == endRank) {
-      // if theres a piece in the way
-      if (isPathClear(start, end, board)) {
+
+    // horizontal or vertical, stopping at the first piece in the way
+    if ((Attacks.rook(start, board.occupied()) & (1L << end)) != 0) {
         // check of destination square is empty
-        if (!isSquareOccupiedBySameColor(end, board, rook.pieceType)) {
+        if (!isSquareOccupiedBySameColor(end, board, rook)) {
             return true;
         }
-      }
     }
     return false;
   }
 
-  private static boolean isLegalKnightMove(ReturnPiece knight, String start, String end, ArrayList<ReturnPiece> board) {
-    // parse again
-    if (!Chess.isMoveValidBasedOnColor(knight, end)) {
+  private static boolean isLegalKnightMove(PieceType knight, int start, int end, Position board) {
+    if (!Chess.isMoveValidBasedOnColor(knight, end, board)) {
       return false; // Invalid move based on piece color
     }
 
-    char startFile = start.charAt(0);
-    char endFile = end.charAt(0);
-    int startRank = Character.getNumericValue(start.charAt(1));
-    int endRank = Character.getNumericValue(end.charAt(1));
-
     // if move is L shape (2x1 or 1x2)
-    int fileDiff = Math.abs(startFile - endFile); 
-    int rankDiff = Math.abs(startRank - endRank);
-    if ((fileDiff == 1 && rankDiff == 2) || (fileDiff == 2 && rankDiff == 1)) {
+    if ((Attacks.knight(start) & (1L << end)) != 0) {
       // check if destination square is empty
-      if (!isSquareOccupiedBySameColor(end, board, knight.pieceType)) {
+      if (!isSquareOccupiedBySameColor(end, board, knight)) {
           return true;
       }
     }
@@ -156,33 +124,25 @@ public class LegalCheck {
   }
 
 
-  private static boolean isLegalBishopMove(ReturnPiece bishop, String start, String end, ArrayList<ReturnPiece> board) {
-    
-    if (!Chess.isMoveValidBasedOnColor(bishop, end)) {
+  private static boolean isLegalBishopMove(PieceType bishop, int start, int end, Position board) {
+
+    if (!Chess.isMoveValidBasedOnColor(bishop, end, board)) {
       return false; // Invalid move based on piece color
     }
 
-    char startFile = start.charAt(0);
-    char endFile = end.charAt(0);
-    int startRank = Character.getNumericValue(start.charAt(1));
-    int endRank = Character.getNumericValue(end.charAt(1));
-
-    // check if move is diagonal
-    if (Math.abs(startFile - endFile) == Math.abs(startRank - endRank)) {
-      // if piece in the way
-      if (isPathClear(start, end, board)) {
+    // diagonal, stopping at the first piece in the way
+    if ((Attacks.bishop(start, board.occupied()) & (1L << end)) != 0) {
         // check if destination square is empty
-        if (!isSquareOccupiedBySameColor(end, board, bishop.pieceType)) {
+        if (!isSquareOccupiedBySameColor(end, board, bishop)) {
           return true;
         }
-      }
     }
     return false;
   }
 
 
-  private static boolean isLegalQueenMove(ReturnPiece queen, String start, String end, ArrayList<ReturnPiece> board) {
-    if (!Chess.isMoveValidBasedOnColor(queen, end)) {
+  private static boolean isLegalQueenMove(PieceType queen, int start, int end, Position board) {
+    if (!Chess.isMoveValidBasedOnColor(queen, end, board)) {
       return false; // Invalid move based on piece color
     }
 
@@ -193,25 +153,20 @@ public class LegalCheck {
     return false;
   }
 
-  private static boolean isLegalKingMove(ReturnPiece king, String start, String end, ArrayList<ReturnPiece> board) {
-    
-    if (!Chess.isMoveValidBasedOnColor(king, end)) {
+  private static boolean isLegalKingMove(PieceType king, int start, int end, Position board) {
+
+    if (!Chess.isMoveValidBasedOnColor(king, end, board)) {
       return false; // Invalid move based on piece color
     }
 
-    char startFile = start.charAt(0);
-    char endFile = end.charAt(0);
-    int startRank = Character.getNumericValue(start.charAt(1));
-    int endRank = Character.getNumericValue(end.charAt(1));
-
     // one square in any direction
-    int fileDiff = Math.abs(startFile - endFile);
-    int rankDiff = Math.abs(startRank - endRank);
+    int fileDiff = Math.abs(Position.fileOf(start) - Position.fileOf(end));
+    int rankDiff = Math.abs(Position.rankOf(start) - Position.rankOf(end));
 
     //typical movement logic
     if (fileDiff <= 1 && rankDiff <= 1) {
       // dest is empty
-      if (!isSquareOccupiedBySameColor(end, board, king.pieceType)) {
+      if (!isSquareOccupiedBySameColor(end, board, king)) {
         if (isMoveSafeForKing(start, end, board)) {
           return true;
       }
@@ -223,7 +178,7 @@ public class LegalCheck {
     if (rankDiff == 0 && (fileDiff == 2 || fileDiff == 3)) {
       // Here, check for the castling conditions.
       // For example: no pieces between king and rook, king is not in check, etc.
-      if (Castle.canCastle(start + " " + end, board)) {
+      if (Castle.canCastle(Move.of(start, end), board)) {
           return true;
       }
     }
@@ -233,222 +188,59 @@ public class LegalCheck {
   }
   // Helper methods
 
-  public static boolean isSquareOccupied(String position, ArrayList<ReturnPiece> board) {
-    for (ReturnPiece piece : board) {
-      if ((piece.pieceFile.name() + piece.pieceRank).equals(position)) {
-        return true;
-      }
-    }
-    return false;
+  public static boolean isSquareOccupied(int position, Position board) {
+    return board.isOccupied(position);
   }
 
-  public static boolean isSquareOccupiedBySameColor(String square, ArrayList<ReturnPiece> board,
+  public static boolean isSquareOccupiedBySameColor(int square, Position board,
       ReturnPiece.PieceType movingPieceType) {
-    for (ReturnPiece piece : board) {
-      if (square.equals(piece.pieceFile.name() + piece.pieceRank)) {
-        if (isWhitePiece(movingPieceType) == isWhitePiece(piece.pieceType)) {
-          return true;
-        }
-      }
-    }
-    return false;
+    return board.isOccupiedBy(square, Position.colorOf(movingPieceType));
 }
 
-  public static boolean isSquareOccupiedByOpponent(String position, ArrayList<ReturnPiece> board,
+  public static boolean isSquareOccupiedByOpponent(int position, Position board,
       ReturnPiece.PieceType currentPieceType) {
-    for (ReturnPiece piece : board) {
-      if ((piece.pieceFile.name() + piece.pieceRank).equals(position)) {
-        // Check color of the occupying piece
-        if (isWhitePiece(currentPieceType) && !isWhitePiece(piece.pieceType)) { // White Piece -> Black
-          return true;
-        } else if (!isWhitePiece(currentPieceType) && isWhitePiece(piece.pieceType)) { // Black Piece -> White
-          return true;
-        }
-      }
-    }
-    return false;
+    // Check color of the occupying piece against the other side's occupancy
+    int opponent = Position.isWhite(currentPieceType) ? Position.BLACK : Position.WHITE;
+    return board.isOccupiedBy(position, opponent);
   }
 
-  private static boolean isWhitePiece(ReturnPiece.PieceType pieceType) {
-    // Assuming that piece types for white pieces have a 'W' prefix (e.g., WP for
-    // white pawn)
-    return pieceType.name().charAt(0) == 'W';
-  }
-
-  // assume that we've checked if the piece can make that move already. Knights
-  // are excluded from this
-  public static boolean isPathClear(String start, String end, ArrayList<ReturnPiece> board) {
-    // Implement logic to check if the path between two positions is clear of pieces
-    // Return true if the path is clear, otherwise return false
-
-    char startFile = start.charAt(0);
-    int startRank = Character.getNumericValue(start.charAt(1));
-    char endFile = end.charAt(0);
-    int endRank = Character.getNumericValue(end.charAt(1));
 
-    // horizontal
-    if (startRank == endRank) {
-
-      char leastFile = (char) Math.min(startFile, endFile); // go from this
-      char mostFile = (char) Math.max(startFile, endFile); // to this
-
-      for (char file = (char) (leastFile + 1); file < mostFile; file++) { // leastFile+1 bc we dont check the square the
-                                                                          // piece is on
-        if (isSquareOccupied(Character.toString(file) + startRank, board)) { // rank doesn't change since horizontal
-          return false;
-        }
-=======
-    // One Square Forward - Reg Pawn
-    if (startFile == endFile && endRank == startRank + direction) {
-      // check oif destination square is empty
-      if (!isSquareOccupied(end, Chess.board)) {
-        return true;
-      }
-    }
-
-    // Initial pawn move: two squares forward from the starting position
-    if (startFile == endFile && endRank == startRank + 2 * direction) {
-      // Check if both the destination square and the square in between are empty
-      String intermediateSquare = String.valueOf(startFile) + (startRank + direction);
-      if (!isSquareOccupied(intermediateSquare, Chess.board) && !isSquareOccupied(end, Chess.board)) {
-        return true;
-      }
-    }
-    // Pawn capturing moves: diagonal
-    if (Math.abs(startFile - endFile) == 1 && endRank == startRank + direction) {
-      // Check if the destination square contains an opponent's piece
-      if (isSquareOccupiedByOpponent(end, Chess.board, pawn.pieceType)) {
-        return true;
-
-      }
-    }
-    return false;
-  }
-
-  // Helper methods
-
-  private static boolean isSquareOccupied(String position, ArrayList<ReturnPiece> board) {
-    for (ReturnPiece piece : board) {
-      if (piece.pieceFile.name() + piece.pieceRank == position) {
-        return true;
-      }
-    }
-    return false;
+  public static void removePieceFromBoard(int position, Position board) {
+    board.remove(position);
   }
 
-  private static boolean isPathClear(String start, String end, ArrayList<ReturnPiece> board) {
-    // Implement logic to check if the path between two positions is clear of pieces
-    // Return true if the path is clear, otherwise return false
-  }
 
-  private static boolean isLegalRookMove(ReturnPiece rook, String start, String end) {
-    // Rook move rules
-  }
-      
-      // vertical
-    } else if (startFile == endFile) {
-
-      int leastRank = Math.min(startRank, endRank);
-      int mostRank = Math.max(startRank, endRank);
-
-      for (int rank = leastRank + 1; rank < mostRank; rank++) {
-        if (isSquareOccupied(Character.toString(startFile) + rank, board)) { // file doesn't change since verical
-          return false;
-        }
-      }
+  public static boolean isMoveSafeForKing(int kingPosition, int targetPosition, Position board) {
+    PieceType king = board.pieceAt(kingPosition);
+    if (king == null) {
+      return true;
     }
 
-    // diagonal
-    else if (Math.abs(startFile - endFile) == Math.abs(startRank - endRank)) {
-      // determine the direction of the diagonal
-      int fileDirection = (startFile < endFile) ? 1 : -1;  // left to right or right to left
-      int rankDirection = (startRank < endRank) ? 1 : -1;  // top to bottom or bottom to top
-
-      // iterate over the diagonal squares
-      char currentFile = (char) (startFile + fileDirection);
-      int currentRank = startRank + rankDirection;
-      while (currentFile != endFile && currentRank != endRank) {
-          if (isSquareOccupied(Character.toString(currentFile) + currentRank, board)) {
-              return false;  // path is blocked
-          }
-          currentFile += fileDirection;
-          currentRank += rankDirection;
-      }
-  }
-
-  return true;
-  }
-
-
-  public static ArrayList<String> getLegalMovesForKing(ReturnPiece king, ArrayList<ReturnPiece> board) {
-    ArrayList<String> legalMoves = new ArrayList<String>();
-    char file = king.pieceFile.name().charAt(0);
-    int rank = king.pieceRank;
+    // 1. Move the king to the target position, taking whatever is there:
+    board.makeMove(Move.of(kingPosition, targetPosition));
 
-    // Check all squares around the king
-    for (int i = -1; i <= 1; i++) {
-        for (int j = -1; j <= 1; j++) {
-            // Skip the square the king is on
-            if (i == 0 && j == 0) {
-                continue;
-            }
-
-            // Calculate the file and rank of the square to check
-            char checkFile = (char) (file + i);
-            int checkRank = rank + j;
-
-            // Check if the square is on the board
-            if (checkFile < 'A' || checkFile > 'H' || checkRank < 1 || checkRank > 8) {
-                continue;
-            }
-
-            // Get the piece at the square
-            ReturnPiece pieceAtSquare = Chess.getPieceAt("" + checkFile + checkRank);
+    // 2. Check if the king's new position is under attack by any opposing pieces:
+    boolean isSafe = !board.isSquareAttackedBy(targetPosition, Position.opponent(Position.colorOf(king)));
 
-            // Check if the square is empty or contains an enemy piece
-            if (pieceAtSquare == null || !Chess.isPieceSameColor(king, pieceAtSquare, board)) {
-                legalMoves.add("" + file + rank + checkFile + checkRank);
-            }
-        }
-    }
+    // 3. Take the move back:
+    board.unmakeMove();
 
-    return legalMoves;
-  }
-  public static void removePieceFromBoard(String position, ArrayList<ReturnPiece> board) {
-    ReturnPiece pieceToRemove = null;
-    for (ReturnPiece piece : board) {
-        if (position.equals(piece.pieceFile.name() + piece.pieceRank)) {
-            pieceToRemove = piece;
-            break;
-        }
-    }
-    if (pieceToRemove != null) {
-        board.remove(pieceToRemove);
-  }
+    return isSafe;
   }
 
 
-  public static boolean isMoveSafeForKing(String kingPosition, String targetPosition, ArrayList<ReturnPiece> board) {
-    // 1. Virtually move the king to the target position:
-    ReturnPiece king = Chess.getPieceAt(kingPosition);
-    ReturnPiece targetPiece = Chess.getPieceAt(targetPosition);
-    
-    // If there's a piece on the target square, temporarily remove it
-    if (targetPiece != null) {
-        board.remove(targetPiece);
-    }
-    
-    Chess.movePiece(king, targetPosition);
-    
-    // 2. Check if the king's new position is under attack by any opposing pieces:
-    boolean isSafe = !Chess.isSquareAttacked(targetPosition, board);
-    
-    // 3. Revert the virtual move:
-    Chess.movePiece(king, kingPosition);
-    if (targetPiece != null) {
-        board.add(targetPiece);
-    }
-    
-    return isSafe;
+  /**
+   * Plays the move on the board just long enough to see whether it leaves the
+   * mover's own king attacked, then takes it back.
+   *
+   * @param move a move that already passed isLegalMove
+   * @return true if the king would be left in check
+   */
+  public static boolean leavesKingInCheck(int move, Position board) {
+    int color = Position.colorOf(board.pieceAt(Move.from(move)));
+    board.makeMove(move);
+    boolean inCheck = board.isInCheck(color);
+    board.unmakeMove();
+    return inCheck;
   }
-}
\ No newline at end of file
+}
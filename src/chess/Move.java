@@ -0,0 +1,106 @@
+package chess;
+
+import chess.ReturnPiece.PieceType;
+
+/**
+ * Packed int encoding of a move, used everywhere inside the engine instead of
+ * Strings like "e2 e4".
+ *
+ *   bits  0-5   from square (0..63, a1 = 0)
+ *   bits  6-11  to square
+ *   bits 12-14  promotion piece (PROMO_NONE, PROMO_KNIGHT .. PROMO_QUEEN)
+ *   bits 16+    flags describing how the move is played
+ *
+ * The low 16 bits on their own are a complete from/to/promotion word. Text is
+ * only parsed at the Chess.play boundary and only produced again by toString.
+ */
+public final class Move {
+
+    public static final int NONE = 0; // a1 to a1, never a real move
+
+    public static final int PROMO_NONE = 0;
+    public static final int PROMO_KNIGHT = 1;
+    public static final int PROMO_BISHOP = 2;
+    public static final int PROMO_ROOK = 3;
+    public static final int PROMO_QUEEN = 4;
+
+    public static final int FLAG_CASTLE = 1 << 16;
+    public static final int FLAG_EN_PASSANT = 1 << 17;
+    public static final int FLAG_DOUBLE_PUSH = 1 << 18;
+
+    private static final String PROMO_LETTERS = " NBRQ";
+
+    private Move() {
+    }
+
+    public static int of(int from, int to) {
+        return from | (to << 6);
+    }
+
+    public static int of(int from, int to, int promotion, int flags) {
+        return from | (to << 6) | (promotion << 12) | flags;
+    }
+
+    public static int from(int move) {
+        return move & 63;
+    }
+
+    public static int to(int move) {
+        return (move >>> 6) & 63;
+    }
+
+    public static int promotion(int move) {
+        return (move >>> 12) & 7;
+    }
+
+    public static boolean has(int move, int flag) {
+        return (move & flag) != 0;
+    }
+
+    /** @return the piece a pawn of the given colour turns into, or null if the move is not a promotion */
+    public static PieceType promotionType(int move, int color) {
+        boolean white = color == Position.WHITE;
+        switch (promotion(move)) {
+            case PROMO_KNIGHT:
+                return white ? PieceType.WN : PieceType.BN;
+            case PROMO_BISHOP:
+                return white ? PieceType.WB : PieceType.BB;
+            case PROMO_ROOK:
+                return white ? PieceType.WR : PieceType.BR;
+            case PROMO_QUEEN:
+                return white ? PieceType.WQ : PieceType.BQ;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Reads a move in the "e2 e4" or "e7 e8 N" form, trusting the layout;
+     * text from a player goes through InputValidation.parse instead.
+     *
+     * @return the packed move, or NONE if the squares can't be read
+     */
+    public static int parse(CharSequence text) {
+        int from = Position.square(text, 0);
+        int to = Position.square(text, 3);
+        if (from < 0 || to < 0) {
+            return NONE;
+        }
+        int promotion = PROMO_NONE;
+        if (text.length() >= 7 && text.charAt(5) == ' ') {
+            int index = PROMO_LETTERS.indexOf(Character.toUpperCase(text.charAt(6)));
+            if (index > 0) {
+                promotion = index;
+            }
+        }
+        return of(from, to, promotion, 0);
+    }
+
+    public static String toString(int move) {
+        String text = Position.squareName(from(move)) + " " + Position.squareName(to(move));
+        if (promotion(move) != PROMO_NONE) {
+            text += " " + PROMO_LETTERS.charAt(promotion(move));
+        }
+        return text;
+    }
+}
@@ -0,0 +1,200 @@
+package chess;
+
+import chess.ReturnPiece.PieceType;
+
+/**
+ * Lists the legal moves in a position.
+ *
+ * Candidate squares for each piece are walked with plain file/rank offsets
+ * and every candidate goes through LegalCheck, so the generator follows the
+ * same rules ProcessMove enforces. A candidate is kept only if it also does
+ * not leave the mover's king in check.
+ *
+ * Moves are written as packed ints (see Move) into a buffer the caller owns
+ * and can reuse from call to call, so generating does not allocate.
+ */
+public class MoveGenerator {
+
+    /** Enough room for any legal position, the known maximum is 218. */
+    public static final int MAX_MOVES = 256;
+
+    private static final int[] KNIGHT_FILE = { 1, 2, 2, 1, -1, -2, -2, -1 };
+    private static final int[] KNIGHT_RANK = { 2, 1, -1, -2, -2, -1, 1, 2 };
+    private static final int[] KING_FILE = { 1, 1, 0, -1, -1, -1, 0, 1 };
+    private static final int[] KING_RANK = { 0, 1, 1, 1, 0, -1, -1, -1 };
+
+    // the first four directions are straight lines, the last four diagonals
+    private static final int[] LINE_FILE = { 1, 0, -1, 0, 1, -1, -1, 1 };
+    private static final int[] LINE_RANK = { 0, 1, 0, -1, 1, 1, -1, -1 };
+
+    /**
+     * Fills moves with every legal move for the side to move.
+     *
+     * @param moves buffer of at least MAX_MOVES entries
+     * @return the number of moves written
+     */
+    public static int generateLegalMoves(Position board, int[] moves) {
+        return generate(board, board.sideToMove(), moves, false, false);
+    }
+
+    public static int generateLegalMoves(Position board, int color, int[] moves) {
+        return generate(board, color, moves, false, false);
+    }
+
+    /**
+     * Fills moves with the legal captures and promotions only, the moves a
+     * quiescence search looks at (see Search).
+     */
+    public static int generateLegalCaptures(Position board, int[] moves) {
+        return generate(board, board.sideToMove(), moves, false, true);
+    }
+
+    /** Stops at the first legal move instead of listing them all. */
+    public static boolean hasAnyLegalMove(Position board) {
+        return generate(board, board.sideToMove(), null, true, false) > 0;
+    }
+
+    public static boolean hasAnyLegalMove(Position board, int color) {
+        return generate(board, color, null, true, false) > 0;
+    }
+
+    private static int generate(Position board, int color, int[] moves, boolean firstOnly, boolean capturesOnly) {
+        int count = 0;
+        for (long bb = board.occupied(color); bb != 0; bb &= bb - 1) {
+            int from = Long.numberOfTrailingZeros(bb);
+            PieceType piece = board.pieceAt(from);
+            int file = Position.fileOf(from);
+            int rank = Position.rankOf(from);
+
+            switch (piece) {
+                case WP:
+                case BP: {
+                    int direction = (piece == PieceType.WP) ? 1 : -1;
+                    for (int fileStep = -1; fileStep <= 1; fileStep++) {
+                        count = tryPawn(board, from, file + fileStep, rank + direction, moves, count, capturesOnly);
+                        if (firstOnly && count > 0) return count;
+                    }
+                    if (!capturesOnly) {
+                        count = tryPawn(board, from, file, rank + 2 * direction, moves, count, false);
+                    }
+                    break;
+                }
+                case WN:
+                case BN:
+                    for (int i = 0; i < 8; i++) {
+                        count = tryMove(board, from, file + KNIGHT_FILE[i], rank + KNIGHT_RANK[i], moves, count, capturesOnly);
+                        if (firstOnly && count > 0) return count;
+                    }
+                    break;
+                case WB:
+                case BB:
+                    count = slide(board, from, 4, 8, moves, count, firstOnly, capturesOnly);
+                    break;
+                case WR:
+                case BR:
+                    count = slide(board, from, 0, 4, moves, count, firstOnly, capturesOnly);
+                    break;
+                case WQ:
+                case BQ:
+                    count = slide(board, from, 0, 8, moves, count, firstOnly, capturesOnly);
+                    break;
+                case WK:
+                case BK:
+                    for (int i = 0; i < 8; i++) {
+                        count = tryMove(board, from, file + KING_FILE[i], rank + KING_RANK[i], moves, count, capturesOnly);
+                        if (firstOnly && count > 0) return count;
+                    }
+                    if (!capturesOnly) {
+                        // castling, the king jumps two files
+                        count = tryMove(board, from, file + 2, rank, moves, count, false);
+                        count = tryMove(board, from, file - 2, rank, moves, count, false);
+                    }
+                    break;
+            }
+            if (firstOnly && count > 0) {
+                return count;
+            }
+        }
+        return count;
+    }
+
+    private static int slide(Position board, int from, int firstDirection, int lastDirection,
+            int[] moves, int count, boolean firstOnly, boolean capturesOnly) {
+        int file = Position.fileOf(from);
+        int rank = Position.rankOf(from);
+        for (int d = firstDirection; d < lastDirection; d++) {
+            int toFile = file + LINE_FILE[d];
+            int toRank = rank + LINE_RANK[d];
+            while (onBoard(toFile, toRank)) {
+                count = tryMove(board, from, toFile, toRank, moves, count, capturesOnly);
+                if (firstOnly && count > 0) return count;
+                if (board.isOccupied(Position.square(toFile, toRank))) {
+                    break; // can land on the first piece but not go past it
+                }
+                toFile += LINE_FILE[d];
+                toRank += LINE_RANK[d];
+            }
+        }
+        return count;
+    }
+
+    private static int tryMove(Position board, int from, int toFile, int toRank, int[] moves, int count,
+            boolean capturesOnly) {
+        if (!onBoard(toFile, toRank)) {
+            return count;
+        }
+        int to = Position.square(toFile, toRank);
+        if (capturesOnly && !board.isOccupied(to)) {
+            return count; // own pieces are turned away by LegalCheck anyway
+        }
+        int move = Move.of(from, to);
+        if (!LegalCheck.isLegalMove(move, board) || LegalCheck.leavesKingInCheck(move, board)) {
+            return count;
+        }
+        if (moves != null) {
+            int fileDiff = toFile - Position.fileOf(from);
+            boolean king = board.pieceAt(from) == PieceType.WK || board.pieceAt(from) == PieceType.BK;
+            moves[count] = (king && (fileDiff == 2 || fileDiff == -2)) ? move | Move.FLAG_CASTLE : move;
+        }
+        return count + 1;
+    }
+
+    private static int tryPawn(Position board, int from, int toFile, int toRank, int[] moves, int count,
+            boolean capturesOnly) {
+        if (!onBoard(toFile, toRank)) {
+            return count;
+        }
+        int to = Position.square(toFile, toRank);
+        if (capturesOnly && toFile == Position.fileOf(from) && toRank != 8 && toRank != 1) {
+            return count; // a straight push is only interesting when it promotes
+        }
+        int move = Move.of(from, to);
+        if (!LegalCheck.isLegalMove(move, board) || LegalCheck.leavesKingInCheck(move, board)) {
+            return count;
+        }
+        if (moves == null) {
+            return count + 1;
+        }
+
+        int flags = 0;
+        if (toFile != Position.fileOf(from) && !board.isOccupied(to)) {
+            flags = Move.FLAG_EN_PASSANT;
+        } else if (Math.abs(toRank - Position.rankOf(from)) == 2) {
+            flags = Move.FLAG_DOUBLE_PUSH;
+        }
+
+        if (toRank == 8 || toRank == 1) {
+            // one move per piece the pawn can become
+            for (int promotion = Move.PROMO_QUEEN; promotion >= Move.PROMO_KNIGHT; promotion--) {
+                moves[count++] = Move.of(from, to, promotion, 0);
+            }
+            return count;
+        }
+        moves[count] = move | flags;
+        return count + 1;
+    }
+
+    private static boolean onBoard(int file, int rank) {
+        return file >= 0 && file <= 7 && rank >= 1 && rank <= 8;
+    }
+}
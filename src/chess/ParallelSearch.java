@@ -0,0 +1,216 @@
+package chess;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Consumer;
+
+/**
+ * Runs a Search on several threads at once, the "Lazy SMP" way.
+ *
+ * Every thread searches the same root position with its own Search (and so
+ * its own Position, killers and history), and they all share one
+ * TranspositionTable. That table is all they share: what one thread finds
+ * is probed by the others and cuts their trees short, and the helpers
+ * starting at staggered depths (every other one a ply deeper) keeps them
+ * from all walking the same tree in lockstep. The table's entries store the
+ * key XORed with the data, so a write torn by two threads reads as a miss
+ * and no locks are needed (see TranspositionTable).
+ *
+ * The calling thread is the leader: it runs under the time and node budget,
+ * its result is the answer, and once it is done the helpers are told to
+ * stop. Nothing is shared with Chess or its static game.
+ *
+ * Usage:
+ *   java chess.ParallelSearch [-threads n] [-t millis] [-d depth] [-hash MB] ["fen"]
+ *   java chess.ParallelSearch -bench depth [-threads n] [-hash MB]
+ *
+ * -bench searches the reference positions of Perft to a fixed depth, first
+ * on one thread and then on n, and prints the speedup in time to depth and
+ * nodes per second per thread.
+ */
+public class ParallelSearch implements AutoCloseable {
+
+    private final TranspositionTable table;
+    private final Search leader;
+    private final Search[] helpers;
+    private final ForkJoinPool pool; // helper threads only, the leader runs on the caller's
+    private final ForkJoinTask<Search.Result>[] running;
+
+    private final long[] threadNodes;
+    private long lastMillis;
+
+    /**
+     * @param threads how many threads search, the calling thread included
+     */
+    @SuppressWarnings("unchecked")
+    public ParallelSearch(TranspositionTable table, int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be at least 1: " + threads);
+        }
+        this.table = table;
+        leader = new Search(table);
+        helpers = new Search[threads - 1];
+        for (int i = 0; i < helpers.length; i++) {
+            helpers[i] = new Search(table);
+        }
+        pool = helpers.length == 0 ? null : new ForkJoinPool(helpers.length);
+        running = (ForkJoinTask<Search.Result>[]) new ForkJoinTask<?>[helpers.length];
+        threadNodes = new long[threads];
+    }
+
+    public static void main(String[] args) {
+        int threads = Runtime.getRuntime().availableProcessors();
+        long millis = 5000;
+        int depth = Search.MAX_PLY;
+        int benchDepth = 0;
+        long megabytes = 256;
+        String fen = Fen.START;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-threads") && i + 1 < args.length) {
+                threads = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-t") && i + 1 < args.length) {
+                millis = Long.parseLong(args[++i]);
+            } else if (args[i].equals("-d") && i + 1 < args.length) {
+                depth = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-bench") && i + 1 < args.length) {
+                benchDepth = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-hash") && i + 1 < args.length) {
+                megabytes = Long.parseLong(args[++i]);
+            } else {
+                fen = args[i];
+            }
+        }
+
+        TranspositionTable table = new TranspositionTable(megabytes);
+        if (benchDepth > 0) {
+            bench(table, threads, benchDepth);
+            return;
+        }
+        Position root = new Position();
+        Fen.load(root, fen);
+        try (ParallelSearch search = new ParallelSearch(table, threads)) {
+            search.onIteration(result -> System.out.println("info " + result));
+            Search.Result result = search.search(root, millis, Long.MAX_VALUE, depth);
+            System.out.println("info threads " + threads + ", " + search.threadReport());
+            System.out.println("bestmove " + result.move());
+        }
+    }
+
+    /** Searches every Perft reference position to the same depth on 1 thread and on n, and compares. */
+    static void bench(TranspositionTable table, int threads, int depth) {
+        run(table, threads, depth, false); // warm up, so the JIT doesn't count against the first run
+        long[] single = run(table, 1, depth, true);
+        long[] parallel = run(table, threads, depth, true);
+        System.out.println();
+        System.out.println("1 thread:   " + single[1] + " ms, " + single[0] + " nodes, "
+                + single[0] * 1000 / Math.max(1, single[1]) + " nps");
+        System.out.println(threads + " threads: " + parallel[1] + " ms, " + parallel[0] + " nodes, "
+                + parallel[0] * 1000 / Math.max(1, parallel[1]) + " nps, "
+                + parallel[0] * 1000 / Math.max(1, parallel[1]) / threads + " nps per thread");
+        System.out.println("speedup in time to depth " + depth + ": "
+                + String.format("%.2f", (double) single[1] / Math.max(1, parallel[1])));
+    }
+
+    /** @return total nodes and milliseconds */
+    private static long[] run(TranspositionTable table, int threads, int depth, boolean print) {
+        long nodes = 0;
+        long millis = 0;
+        Position root = new Position();
+        try (ParallelSearch search = new ParallelSearch(table, threads)) {
+            for (Object[] reference : Perft.REFERENCE) {
+                table.clear();
+                Fen.load(root, (String) reference[0]);
+                Search.Result result = search.search(root, Long.MAX_VALUE, Long.MAX_VALUE, depth);
+                if (print) {
+                    System.out.println(threads + " threads: " + result + ", " + search.threadReport());
+                }
+                nodes += result.nodes;
+                millis += result.millis;
+            }
+        }
+        return new long[] { nodes, millis };
+    }
+
+    /** Has every thread score the positions the tablebases cover from them, see Search.useTablebase. */
+    public void useTablebase(Tablebase tablebase) {
+        leader.useTablebase(tablebase);
+        for (Search helper : helpers) {
+            helper.useTablebase(tablebase);
+        }
+    }
+
+    /** Calls the listener after every iteration the leader finishes. */
+    public void onIteration(Consumer<Search.Result> listener) {
+        leader.onIteration(listener);
+    }
+
+    /**
+     * Searches on every thread until the leader runs out of time or nodes or
+     * reaches the depth. The nodes in the result are those of all threads.
+     */
+    public Search.Result search(Position root, long millis, long maxNodes, int maxDepth) {
+        long start = System.nanoTime();
+        for (int i = 0; i < helpers.length; i++) {
+            Search helper = helpers[i];
+            int firstDepth = 1 + (i & 1);
+            helper.clearStop();
+            running[i] = pool.submit(() -> helper.iterate(root, Long.MAX_VALUE, Long.MAX_VALUE, maxDepth, firstDepth, false));
+        }
+
+        Search.Result result;
+        try {
+            result = leader.search(root, millis, maxNodes, maxDepth);
+        } finally {
+            for (Search helper : helpers) {
+                helper.stop();
+            }
+            for (ForkJoinTask<Search.Result> task : running) {
+                if (task != null) {
+                    task.join();
+                }
+            }
+        }
+
+        long total = leader.nodes();
+        threadNodes[0] = leader.nodes();
+        for (int i = 0; i < helpers.length; i++) {
+            threadNodes[i + 1] = helpers[i].nodes();
+            total += helpers[i].nodes();
+        }
+        lastMillis = Math.max(1, (System.nanoTime() - start) / 1_000_000);
+        return new Search.Result(result.bestMove, result.score, result.depth, total, lastMillis, result.pv);
+    }
+
+    /** Stops a running search from any thread. */
+    public void stop() {
+        leader.stop();
+    }
+
+    /** @return nodes per second of each thread in the last search, the leader first */
+    public long[] threadNps() {
+        long[] nps = new long[threadNodes.length];
+        for (int i = 0; i < nps.length; i++) {
+            nps[i] = threadNodes[i] * 1000 / Math.max(1, lastMillis);
+        }
+        return nps;
+    }
+
+    String threadReport() {
+        StringBuilder out = new StringBuilder("nps per thread");
+        for (long nps : threadNps()) {
+            out.append(' ').append(nps);
+        }
+        return out.append(", table ").append(table.stats()).toString();
+    }
+
+    public int threads() {
+        return helpers.length + 1;
+    }
+
+    @Override
+    public void close() {
+        if (pool != null) {
+            pool.shutdownNow();
+        }
+    }
+}
@@ -1,8 +1,5 @@
 package chess;
 
-import java.util.ArrayList;
-
-import chess.ReturnPiece.PieceFile;
 import chess.ReturnPiece.PieceType;
 
 /**
@@ -41,9 +38,8 @@ import chess.ReturnPiece.PieceType;
 
 public class PawnPromo {
 
-    public static boolean checkPawnPromotion(String move, ArrayList<ReturnPiece> board) {
-        String startPos = move.substring(0, 2);
-        ReturnPiece pawn = Chess.getPieceAt(startPos);
+    public static boolean checkPawnPromotion(int move, Position board) {
+        PieceType pawn = board.pieceAt(Move.from(move));
     
         // If pawn is null or not an actual pawn, return false
         if (pawn == null || !isPawn(pawn)) {
@@ -52,20 +48,20 @@ public class PawnPromo {
     
         // Check if pawn ends on promotion rank based on its color
         int promoRank = getPromotionRank(pawn);
-        if (promoRank != Character.getNumericValue(move.charAt(4))) { // directly check the rank of endPos
+        if (promoRank != Position.rankOf(Move.to(move))) { // directly check the rank of endPos
             return false;
         }
     
         return true;
     }
 
-    private static boolean isPawn(ReturnPiece piece) {
+    private static boolean isPawn(PieceType piece) {
         if (piece == null) return false;
-        return piece.pieceType == PieceType.WP || piece.pieceType == PieceType.BP;
+        return piece == PieceType.WP || piece == PieceType.BP;
     }
 
-    private static int getPromotionRank(ReturnPiece pawn) {
-        if (pawn.pieceType == PieceType.WP) {
+    private static int getPromotionRank(PieceType pawn) {
+        if (pawn == PieceType.WP) {
             return 8;
         } else {
             return 1;
@@ -73,47 +69,18 @@ public class PawnPromo {
     }
 
 
-    public static void promotePawn(String move, ArrayList<ReturnPiece> board) {
-		String startPos = move.substring(0, 2);
-		ReturnPiece pawn = Chess.getPieceAt(startPos);
-	
-		// Remove pawn from board
-		board.remove(pawn);
-	
-		// Determine promotion piece type based on pawn's color and the provided move
-		PieceType promoType;
-	
-		if (move.matches("^[a-h][1-8] [a-h][1-8]( [NBRQ])?$") || move.matches("^[a-h][1-8] [a-h][1-8]( [NBRQ])?$|^draw$|^resign$|^reset$")) {
-			char promotionChar = 'Q';  // Get the promotion character from the move string
-			switch (promotionChar) {
-				case 'N':
-					promoType = (pawn.pieceType == PieceType.WP) ? PieceType.WN : PieceType.BN;
-					break;
-				case 'B':
-					promoType = (pawn.pieceType == PieceType.WP) ? PieceType.WB : PieceType.BB;
-					break;
-				case 'R':
-					promoType = (pawn.pieceType == PieceType.WP) ? PieceType.WR : PieceType.BR;
-					break;
-				default:
-					promoType = (pawn.pieceType == PieceType.WP) ? PieceType.WQ : PieceType.BQ; // Default to queen
-					break;
-			}
-		} else {
-			promoType = (pawn.pieceType == PieceType.WP) ? PieceType.WQ : PieceType.BQ; // Default to queen if no promotion character specified
-		}
-
-		if (move.matches("^[a-h][1-8] [a-h][1-8] draw$")) {
-			// Handle draw request after a move
-		} else if (move.matches("^[a-h][1-8] [a-h][1-8] resign$")) {
-			// Handle resign request after a move
-		} else if (move.matches("^[a-h][1-8] [a-h][1-8] reset$")) {
-			// Handle reset request after a move
+    public static void promotePawn(int move, Position board) {
+		int startPos = Move.from(move);
+		int endPos = Move.to(move);
 	
+		// Promote to the piece asked for, a queen if none was
+		int promotion = Move.promotion(move);
+		if (promotion == Move.PROMO_NONE) {
+			promotion = Move.PROMO_QUEEN;
 		}
-		// Add promotion piece to board at the end position
-		Chess.addToBoard(promoType, PieceFile.valueOf(move.substring(3, 4)), Character.getNumericValue(move.charAt(4)));
 
-		
+		// Pawn leaves, anything it captures on the back rank goes and the new piece appears,
+		// as one move that can be taken back
+		board.makeMove(Move.of(startPos, endPos, promotion, 0));
 	}
 }
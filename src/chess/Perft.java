@@ -0,0 +1,195 @@
+package chess;
+
+/**
+ * Perft (performance test) counts the leaf nodes of the legal move tree to a
+ * fixed depth. The counts for a handful of positions are well known, so a
+ * mismatch points straight at a rules bug in LegalCheck, EnPassant, Castle or
+ * PawnPromo, and nodes per second is a single number to track how fast move
+ * generation is from one release to the next.
+ *
+ * Usage:
+ *   java chess.Perft                      runs the reference suite and checks every count
+ *   java chess.Perft depth                divide from the start position
+ *   java chess.Perft depth "fen"          divide from any position given in FEN
+ *
+ * With -Dperft.hash=MB the counts of positions already seen at the same
+ * depth are taken from a TranspositionTable of that size instead of being
+ * counted again.
+ */
+public class Perft {
+
+    /** FEN, then the expected node counts for depth 1, 2, 3 ... */
+    static final Object[][] REFERENCE = {
+        { "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1",
+                new long[] { 20, 400, 8902, 197281, 4865609 } },
+        { "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1",
+                new long[] { 48, 2039, 97862, 4085603 } },
+        { "8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 0 1",
+                new long[] { 14, 191, 2812, 43238, 674624 } },
+        { "r3k2r/Pppp1ppp/1b3nbN/nP6/BBP1P3/q4N2/Pp1P2PP/R2Q1RK1 w kq - 0 1",
+                new long[] { 6, 264, 9467, 422333 } },
+        { "rnbq1k1r/pp1Pbppp/2p5/8/2B5/8/PPP1NnPP/RNBQK2R w KQ - 1 8",
+                new long[] { 44, 1486, 62379, 2103487 } },
+    };
+
+    private static final int MAX_DEPTH = 64;
+
+    // moves are made and unmade on one position, with a preallocated move buffer per ply,
+    // so counting does not allocate
+    private final Position position = new Position();
+    private final int[][] moves = new int[MAX_DEPTH + 1][MoveGenerator.MAX_MOVES];
+
+    private final TranspositionTable table; // null when counting everything
+
+    public Perft() {
+        this(null);
+    }
+
+    public Perft(TranspositionTable table) {
+        this.table = table;
+    }
+
+    /** @return a table of -Dperft.hash megabytes, or null if the property is not set */
+    static TranspositionTable tableFromProperties() {
+        long megabytes = Long.getLong("perft.hash", 0);
+        return megabytes > 0 ? new TranspositionTable(megabytes) : null;
+    }
+
+    public static void main(String[] args) {
+        if (args.length == 0) {
+            int depth = Integer.getInteger("perft.depth", 3);
+            System.exit(runSuite(depth) ? 0 : 1);
+        }
+
+        int depth = Integer.parseInt(args[0]);
+        Position start = new Position();
+        if (args.length > 1) {
+            Fen.load(start, args[1]);
+        } else {
+            Chess.start();
+            start.copyFrom(Chess.position);
+        }
+        Perft perft = new Perft(tableFromProperties());
+        perft.divide(start, depth);
+        perft.printTableStats();
+    }
+
+    /**
+     * Counts the leaves below the given position; at depth 0 that is the
+     * position itself.
+     *
+     * @throws IllegalArgumentException if depth is negative or above MAX_DEPTH
+     */
+    public long perft(Position root, int depth) {
+        checkDepth(depth, 0);
+        if (depth == 0) {
+            return 1;
+        }
+        position.copyFrom(root);
+        return count(0, depth);
+    }
+
+    /**
+     * Prints the node count below every root move, then the total and speed.
+     *
+     * @throws IllegalArgumentException if depth is below 1 or above MAX_DEPTH
+     */
+    public long divide(Position root, int depth) {
+        checkDepth(depth, 1);
+        long start = System.nanoTime();
+        long total = 0;
+        position.copyFrom(root);
+        int[] rootMoves = moves[0];
+        int n = MoveGenerator.generateLegalMoves(position, rootMoves);
+        for (int i = 0; i < n; i++) {
+            position.makeMove(rootMoves[i]);
+            long nodes = depth <= 1 ? 1 : count(1, depth - 1);
+            position.unmakeMove();
+            System.out.println(Move.toString(rootMoves[i]) + ": " + nodes);
+            total += nodes;
+        }
+        long elapsed = System.nanoTime() - start;
+        System.out.println();
+        System.out.println("moves " + n + ", nodes " + total + ", " + report(total, elapsed));
+        return total;
+    }
+
+    private static void checkDepth(int depth, int min) {
+        if (depth < min || depth > MAX_DEPTH) {
+            throw new IllegalArgumentException("depth must be " + min + " to " + MAX_DEPTH + ": " + depth);
+        }
+    }
+
+    // depth is at least 1
+    private long count(int ply, int depth) {
+        int[] buffer = moves[ply];
+        if (table != null && depth > 1) {
+            long data = table.probe(position.hash());
+            if (data != TranspositionTable.MISS && TranspositionTable.depth(data) == depth) {
+                return TranspositionTable.payload(data);
+            }
+        }
+        int n = MoveGenerator.generateLegalMoves(position, buffer);
+        if (depth == 1) {
+            return n; // bulk count the last ply
+        }
+        long nodes = 0;
+        for (int i = 0; i < n; i++) {
+            position.makeMove(buffer[i]);
+            nodes += count(ply + 1, depth - 1);
+            position.unmakeMove();
+        }
+        if (table != null) {
+            table.storeCount(position.hash(), depth, nodes);
+        }
+        return nodes;
+    }
+
+    private void printTableStats() {
+        if (table != null) {
+            System.out.println("hash " + (table.sizeInBytes() >> 20) + " MB, " + table.stats());
+        }
+    }
+
+    /**
+     * Runs every reference position up to maxDepth and compares the counts.
+     *
+     * @return true if every count matched
+     */
+    public static boolean runSuite(int maxDepth) {
+        Perft perft = new Perft(tableFromProperties());
+        Position root = new Position();
+        boolean allPassed = true;
+        long totalNodes = 0;
+        long totalTime = 0;
+
+        for (Object[] reference : REFERENCE) {
+            String fen = (String) reference[0];
+            long[] expected = (long[]) reference[1];
+            Fen.load(root, fen);
+            System.out.println(fen);
+            for (int depth = 1; depth <= Math.min(maxDepth, expected.length); depth++) {
+                long start = System.nanoTime();
+                long nodes = perft.perft(root, depth);
+                long elapsed = System.nanoTime() - start;
+                totalNodes += nodes;
+                totalTime += elapsed;
+                boolean passed = nodes == expected[depth - 1];
+                allPassed &= passed;
+                System.out.println("  depth " + depth + ": " + nodes
+                        + (passed ? " ok" : " FAILED, expected " + expected[depth - 1])
+                        + " (" + report(nodes, elapsed) + ")");
+            }
+        }
+        System.out.println();
+        System.out.println((allPassed ? "all counts match" : "COUNT MISMATCH")
+                + ", nodes " + totalNodes + ", " + report(totalNodes, totalTime));
+        perft.printTableStats();
+        return allPassed;
+    }
+
+    private static String report(long nodes, long nanos) {
+        long millis = Math.max(1, nanos / 1_000_000);
+        return millis + " ms, " + (nodes * 1000 / millis) + " nps";
+    }
+}
@@ -1,12 +1,25 @@
 package chess;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Scanner;
 
 public class PlayChess {
 
-	public static void main(String[] args) {
-		// TODO Auto-generated method stub
+	private static final long THINK_MILLIS = 2000;
+
+	private static Search engine; // made the first time the computer is asked for a move
+	private static OpeningBook book;
+	private static boolean bookLoaded;
+
+	public static void main(String[] args) throws IOException {
+		// headless replay of a whole stream of games, see BatchReplay
+		if (args.length > 0 && args[0].equals("--batch")) {
+			BatchReplay.main(Arrays.copyOfRange(args, 1, args.length));
+			return;
+		}
+
 		Scanner sc = new Scanner(System.in);
 		Chess.start();
 		
@@ -18,6 +31,22 @@ public class PlayChess {
 				line = sc.nextLine();
 				continue;
 			}
+			// "go" lets the computer play the side to move, "go 500" gives it 500 ms
+			if (line.equals("go") || line.startsWith("go ")) {
+				long millis = line.length() > 3 ? parseMillis(line.substring(3).trim()) : THINK_MILLIS;
+				if (millis <= 0) {
+					System.out.println("go takes a time in milliseconds, e.g. go 500");
+					line = sc.nextLine();
+					continue;
+				}
+				String move = think(millis);
+				if (move == null) {
+					line = sc.nextLine();
+					continue;
+				}
+				line = move;
+			}
+
 			// move 
 			ReturnPlay res = Chess.play(line);
 			
@@ -38,18 +67,52 @@ public class PlayChess {
 		sc.close();
 	}
 	
+	// the time after "go", or -1 if it isn't a number
+	private static long parseMillis(String text) {
+		try {
+			return Long.parseLong(text);
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Plays from the opening book if there is one and it knows the position,
+	 * otherwise searches and prints the move found with its search statistics.
+	 */
+	static String think(long millis) throws IOException {
+		if (!bookLoaded) {
+			book = OpeningBook.fromProperties();
+			bookLoaded = true;
+		}
+		String bookMove = book == null ? null : book.pick(Chess.position);
+		if (bookMove != null) {
+			System.out.println(bookMove + "  (book)");
+			return bookMove;
+		}
+		if (engine == null) {
+			engine = new Search(new TranspositionTable(64));
+		}
+		Search.Result result = engine.search(Chess.position, millis);
+		System.out.println(result.move() == null ? "no legal move" : result.move() + "  (" + result + ")");
+		return result.move();
+	}
+
 	static void printBoard(ArrayList<ReturnPiece> pieces) {
 		String[][] board = makeBlankBoard();
 		if (pieces != null) {
 			printPiecesOnBoard(pieces, board);
 		}
+		// build the whole board first and print it in one go
+		StringBuilder out = new StringBuilder(256);
 		for (int r=0; r < 8; r++) {
 			for (int c=0; c < 8; c++) {
-				System.out.print(board[r][c] + " ");
+				out.append(board[r][c]).append(' ');
 			}	
-			System.out.println((8-r));
+			out.append(8-r).append(System.lineSeparator());
 		}
-		System.out.println(" a  b  c  d  e  f  g  h");
+		out.append(" a  b  c  d  e  f  g  h");
+		System.out.println(out);
 	}
 	
 	static String[][] makeBlankBoard() {
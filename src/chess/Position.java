@@ -0,0 +1,661 @@
+package chess;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import chess.ReturnPiece.PieceFile;
+import chess.ReturnPiece.PieceType;
+
+/**
+ * Bitboard representation of the pieces on the board.
+ *
+ * Squares are numbered 0..63 starting from a1 and going across each rank,
+ * so a1 = 0, h1 = 7, a2 = 8 ... h8 = 63. Every piece type has its own 64-bit
+ * board with one bit set per square it stands on, indexed by the ordinal of
+ * its PieceType. The colour and combined occupancy masks are kept alongside,
+ * and a mailbox array mirrors the bitboards so "what is on e4" is one read.
+ *
+ * None of the queries allocate. The ArrayList of ReturnPiece that the rest
+ * of the assignment works with is only built by toList() when a ReturnPlay
+ * needs to be filled in.
+ *
+ * Every change to the board also updates a Zobrist key (see Zobrist), so
+ * hash() identifies the position without looking at the pieces, and the
+ * material and piece-square totals (see Evaluation), so evaluate() is a
+ * few arithmetic operations rather than a scan of the board.
+ *
+ * Everything about the position besides the pieces and the move number
+ * (castling rights, the en passant file, the halfmove clock and the side to
+ * move) is packed into one int, the state word, so it is updated with a few
+ * bit operations and saved and restored as a single value.
+ *
+ * makeMove plays a move in place and pushes what it can't work out again
+ * (the captured piece, the state word and the hash) onto an undo stack;
+ * unmakeMove pops it and puts the position back exactly. The stack is
+ * preallocated, so trying a move and taking it back allocates nothing.
+ */
+public class Position {
+
+    public static final int WHITE = 0;
+    public static final int BLACK = 1;
+
+    private static final PieceType[] TYPES = PieceType.values();
+    private static final PieceFile[] FILES = PieceFile.values();
+    private static final byte EMPTY = -1;
+
+    // castling right bits, in the order FEN lists them
+    public static final int WHITE_KINGSIDE = 1;
+    public static final int WHITE_QUEENSIDE = 2;
+    public static final int BLACK_KINGSIDE = 4;
+    public static final int BLACK_QUEENSIDE = 8;
+
+    // the rights that go when a piece moves from or to the square: the king's
+    // home square loses both of its side's, a rook's home square its own
+    private static final int[] RIGHTS_ON = new int[64];
+
+    static {
+        RIGHTS_ON[4] = WHITE_KINGSIDE | WHITE_QUEENSIDE;
+        RIGHTS_ON[7] = WHITE_KINGSIDE;
+        RIGHTS_ON[0] = WHITE_QUEENSIDE;
+        RIGHTS_ON[60] = BLACK_KINGSIDE | BLACK_QUEENSIDE;
+        RIGHTS_ON[63] = BLACK_KINGSIDE;
+        RIGHTS_ON[56] = BLACK_QUEENSIDE;
+    }
+
+    // the state word:
+    //   bits  0-3   castling rights, WHITE_KINGSIDE .. BLACK_QUEENSIDE
+    //   bits  4-7   en passant file + 1, 0 if none
+    //   bits  8-17  halfmove clock, stops at MAX_CLOCK
+    //   bit   18    side to move, set for black
+    private static final int CASTLING_MASK = 0xF;
+    private static final int EP_SHIFT = 4;
+    private static final int EP_MASK = 0xF << EP_SHIFT;
+    private static final int CLOCK_SHIFT = 8;
+    private static final int CLOCK_MASK = 0x3FF << CLOCK_SHIFT;
+    private static final int SIDE_SHIFT = 18;
+
+    // material counts: 5 bits per PieceType, enough for any position that can come up in a game
+    private static final int MATERIAL_BITS = 5;
+    private static final long MATERIAL_COUNT = (1L << MATERIAL_BITS) - 1;
+    private static final long PAWNS_ROOKS_QUEENS = materialMask(PieceType.WP, PieceType.WR, PieceType.WQ,
+            PieceType.BP, PieceType.BR, PieceType.BQ);
+
+    private static final long LIGHT_SQUARES = 0x55AA55AA55AA55AAL;
+
+    /** Largest halfmove clock the state word holds; it stays there after that. */
+    public static final int MAX_CLOCK = 0x3FF;
+
+    final long[] pieces = new long[TYPES.length]; // one board per PieceType
+    final long[] colors = new long[2];            // white and black occupancy
+    long occupied;                                // every piece on the board
+    final byte[] mailbox = new byte[64];          // PieceType ordinal per square, EMPTY if none
+
+    int state;          // castling rights, en passant file, halfmove clock and side to move, see above
+    int fullmoveNumber; // starts at 1, goes up after every black move
+
+    long hash;        // Zobrist key of everything above
+
+    int middlegame;   // Evaluation totals of the pieces on the board, white's side
+    int endgame;
+    int phase;
+
+    long material;    // how many of each piece there are, MATERIAL_BITS per PieceType ordinal
+
+    // undo stack, one entry per move made and not yet unmade
+    private static final int INITIAL_UNDO = 256;
+    private int undoCount;
+    private int[] undoMove = new int[INITIAL_UNDO];
+    private byte[] undoCaptured = new byte[INITIAL_UNDO];       // PieceType ordinal or EMPTY
+    private byte[] undoCapturedSquare = new byte[INITIAL_UNDO]; // differs from the to square for en passant
+    private int[] undoState = new int[INITIAL_UNDO];
+    private long[] undoHash = new long[INITIAL_UNDO];
+
+    public Position() {
+        clear();
+    }
+
+    // square helpers
+
+    public static int square(int file, int rank) {
+        return (rank - 1) * 8 + file; // file 0..7, rank 1..8
+    }
+
+    public static int square(PieceFile file, int rank) {
+        return square(file.ordinal(), rank);
+    }
+
+    /**
+     * Parses a square such as "e4" starting at the given offset.
+     *
+     * @return the square index, or -1 if the characters are not a square
+     */
+    public static int square(CharSequence text, int offset) {
+        if (text.length() < offset + 2) {
+            return -1;
+        }
+        int file = text.charAt(offset) - 'a';
+        int rank = text.charAt(offset + 1) - '0';
+        if (file < 0 || file > 7 || rank < 1 || rank > 8) {
+            return -1;
+        }
+        return square(file, rank);
+    }
+
+    public static int square(CharSequence text) {
+        return square(text, 0);
+    }
+
+    public static int fileOf(int square) {
+        return square & 7;
+    }
+
+    public static int rankOf(int square) {
+        return (square >>> 3) + 1;
+    }
+
+    public static String squareName(int square) {
+        return FILES[fileOf(square)].name() + rankOf(square);
+    }
+
+    public static int colorOf(PieceType type) {
+        return type.ordinal() < 6 ? WHITE : BLACK;
+    }
+
+    public static boolean isWhite(PieceType type) {
+        return colorOf(type) == WHITE;
+    }
+
+    public static int opponent(int color) {
+        return color ^ 1;
+    }
+
+    // updates
+
+    public void clear() {
+        for (int i = 0; i < pieces.length; i++) {
+            pieces[i] = 0L;
+        }
+        colors[WHITE] = 0L;
+        colors[BLACK] = 0L;
+        occupied = 0L;
+        state = 0; // white to move, no castling, no en passant, clock at 0
+        fullmoveNumber = 1;
+        hash = 0L;
+        middlegame = 0;
+        endgame = 0;
+        phase = 0;
+        material = 0L;
+        undoCount = 0;
+        for (int sq = 0; sq < 64; sq++) {
+            mailbox[sq] = EMPTY;
+        }
+    }
+
+    /** Places a piece on an empty square. */
+    public void add(PieceType type, int square) {
+        long bit = 1L << square;
+        pieces[type.ordinal()] |= bit;
+        colors[colorOf(type)] |= bit;
+        occupied |= bit;
+        mailbox[square] = (byte) type.ordinal();
+        hash ^= Zobrist.PIECES[type.ordinal()][square];
+        middlegame += Evaluation.MIDDLEGAME[type.ordinal()][square];
+        endgame += Evaluation.ENDGAME[type.ordinal()][square];
+        phase += Evaluation.PHASE[type.ordinal()];
+        material += 1L << (MATERIAL_BITS * type.ordinal());
+    }
+
+    /**
+     * Takes whatever is on the square off the board.
+     *
+     * @return the piece that was removed, or null if the square was empty
+     */
+    public PieceType remove(int square) {
+        byte index = mailbox[square];
+        if (index == EMPTY) {
+            return null;
+        }
+        PieceType type = TYPES[index];
+        long bit = ~(1L << square);
+        pieces[index] &= bit;
+        colors[colorOf(type)] &= bit;
+        occupied &= bit;
+        mailbox[square] = EMPTY;
+        hash ^= Zobrist.PIECES[index][square];
+        middlegame -= Evaluation.MIDDLEGAME[index][square];
+        endgame -= Evaluation.ENDGAME[index][square];
+        phase -= Evaluation.PHASE[index];
+        material -= 1L << (MATERIAL_BITS * index);
+        return type;
+    }
+
+    /** Moves the piece on from to the empty square to. */
+    public void move(int from, int to) {
+        byte index = mailbox[from];
+        if (index == EMPTY) {
+            return;
+        }
+        long fromTo = (1L << from) | (1L << to);
+        pieces[index] ^= fromTo;
+        colors[colorOf(TYPES[index])] ^= fromTo;
+        occupied ^= fromTo;
+        mailbox[to] = index;
+        mailbox[from] = EMPTY;
+        hash ^= Zobrist.PIECES[index][from] ^ Zobrist.PIECES[index][to];
+        middlegame += Evaluation.MIDDLEGAME[index][to] - Evaluation.MIDDLEGAME[index][from];
+        endgame += Evaluation.ENDGAME[index][to] - Evaluation.ENDGAME[index][from];
+    }
+
+    /**
+     * Makes this position an exact copy of other without allocating. The undo
+     * stack is not copied, so moves made before the copy can't be unmade on it.
+     */
+    public void copyFrom(Position other) {
+        System.arraycopy(other.pieces, 0, pieces, 0, pieces.length);
+        System.arraycopy(other.mailbox, 0, mailbox, 0, mailbox.length);
+        colors[WHITE] = other.colors[WHITE];
+        colors[BLACK] = other.colors[BLACK];
+        occupied = other.occupied;
+        state = other.state;
+        fullmoveNumber = other.fullmoveNumber;
+        hash = other.hash;
+        middlegame = other.middlegame;
+        endgame = other.endgame;
+        phase = other.phase;
+        material = other.material;
+        undoCount = 0;
+    }
+
+    /**
+     * Plays a move for the side to move: takes off whatever it captures (en
+     * passant included), moves the rook along when castling, swaps in the
+     * promotion piece and hands the turn over. The move only has to follow
+     * the piece's movement rules; whether it leaves the king in check is up
+     * to the caller, who can take it back with unmakeMove.
+     */
+    public void makeMove(int move) {
+        int from = Move.from(move);
+        int to = Move.to(move);
+        PieceType piece = pieceAt(from);
+        boolean pawn = piece == PieceType.WP || piece == PieceType.BP;
+        if (!pawn) {
+            move = Move.of(from, to, Move.PROMO_NONE, move & ~0xFFFF); // only pawns promote
+        }
+
+        int capturedSquare = to;
+        if (pawn && fileOf(from) != fileOf(to) && !isOccupied(to)) {
+            capturedSquare = square(fileOf(to), rankOf(from)); // en passant
+        }
+
+        if (undoCount == undoMove.length) {
+            growUndo();
+        }
+        int u = undoCount++;
+        undoMove[u] = move;
+        undoCaptured[u] = mailbox[capturedSquare];
+        undoCapturedSquare[u] = (byte) capturedSquare;
+        undoState[u] = state;
+        undoHash[u] = hash;
+
+        PieceType captured = remove(capturedSquare);
+        int clock = (pawn || captured != null) ? 0 : Math.min(halfmoveClock() + 1, MAX_CLOCK);
+        state = (state & ~CLOCK_MASK) | (clock << CLOCK_SHIFT);
+
+        if ((piece == PieceType.WK || piece == PieceType.BK) && Math.abs(to - from) == 2) {
+            move(to > from ? from + 3 : from - 4, to > from ? from + 1 : from - 1); // the king leaving takes both rights
+        }
+
+        move(from, to);
+        if (Move.promotion(move) != Move.PROMO_NONE) {
+            remove(to);
+            add(Move.promotionType(move, colorOf(piece)), to);
+        }
+
+        markMoved(from, to);
+        setLastMove(move);
+        if (sideToMove() == BLACK) {
+            fullmoveNumber++;
+        }
+        switchSides();
+    }
+
+    /** Takes back the last move made with makeMove. */
+    public void unmakeMove() {
+        int u = --undoCount;
+        int move = undoMove[u];
+        int from = Move.from(move);
+        int to = Move.to(move);
+        state = undoState[u]; // side to move included
+        if (sideToMove() == BLACK) {
+            fullmoveNumber--;
+        }
+
+        if (Move.promotion(move) != Move.PROMO_NONE) {
+            remove(to);
+            add(sideToMove() == WHITE ? PieceType.WP : PieceType.BP, to);
+        }
+        move(to, from);
+
+        PieceType piece = pieceAt(from);
+        if ((piece == PieceType.WK || piece == PieceType.BK) && Math.abs(to - from) == 2) {
+            move(to > from ? from + 1 : from - 1, to > from ? from + 3 : from - 4);
+        }
+
+        if (undoCaptured[u] != EMPTY) {
+            add(TYPES[undoCaptured[u]], undoCapturedSquare[u]);
+        }
+
+        hash = undoHash[u];
+    }
+
+    /** @return how many moves have been made and can still be unmade */
+    public int undoDepth() {
+        return undoCount;
+    }
+
+    /**
+     * @return the move made at the given ply, counting from the last clear or
+     *         copyFrom; ply must be below undoDepth
+     */
+    public int moveAt(int ply) {
+        return undoMove[ply];
+    }
+
+    /** @return the key of the position moveAt(0) was made in, the current key if no move was made */
+    public long rootHash() {
+        return undoCount == 0 ? hash : undoHash[0];
+    }
+
+    private void growUndo() {
+        int size = undoMove.length * 2;
+        undoMove = Arrays.copyOf(undoMove, size);
+        undoCaptured = Arrays.copyOf(undoCaptured, size);
+        undoCapturedSquare = Arrays.copyOf(undoCapturedSquare, size);
+        undoState = Arrays.copyOf(undoState, size);
+        undoHash = Arrays.copyOf(undoHash, size);
+    }
+
+    public void switchSides() {
+        state ^= 1 << SIDE_SHIFT;
+        hash ^= Zobrist.SIDE;
+    }
+
+    /** Takes away the castling rights that need the pieces on both squares not to have moved. */
+    public void markMoved(int from, int to) {
+        int rights = state & CASTLING_MASK;
+        int left = rights & ~(RIGHTS_ON[from] | RIGHTS_ON[to]);
+        if (left != rights) {
+            state ^= rights ^ left;
+            hash ^= Zobrist.CASTLING[rights] ^ Zobrist.CASTLING[left];
+        }
+    }
+
+    /**
+     * Records that the piece on the square has not moved yet: gives back the
+     * castling rights that depend on it, for each one whose king and rook
+     * are both on their home squares.
+     */
+    public void markUnmoved(int square) {
+        addCastlingRights(RIGHTS_ON[square]);
+    }
+
+    /**
+     * Adds to the castling rights, e.g. Position.WHITE_KINGSIDE | Position.BLACK_KINGSIDE.
+     * A right whose king and rook are not both on their home squares is not
+     * added, so the pieces have to be placed first.
+     */
+    public void addCastlingRights(int rights) {
+        int before = state & CASTLING_MASK;
+        int after = before | (rights & homeRights());
+        state ^= before ^ after;
+        hash ^= Zobrist.CASTLING[before] ^ Zobrist.CASTLING[after];
+    }
+
+    // the rights whose king and rook stand on their home squares
+    private int homeRights() {
+        int rights = 0;
+        if (mailbox[4] == PieceType.WK.ordinal()) {
+            if (mailbox[7] == PieceType.WR.ordinal()) rights |= WHITE_KINGSIDE;
+            if (mailbox[0] == PieceType.WR.ordinal()) rights |= WHITE_QUEENSIDE;
+        }
+        if (mailbox[60] == PieceType.BK.ordinal()) {
+            if (mailbox[63] == PieceType.BR.ordinal()) rights |= BLACK_KINGSIDE;
+            if (mailbox[56] == PieceType.BR.ordinal()) rights |= BLACK_QUEENSIDE;
+        }
+        return rights;
+    }
+
+    /**
+     * Remembers the move that was just played, which decides whether en
+     * passant is possible next. Call it once the pieces are in their new places.
+     */
+    public void setLastMove(int move) {
+        int epFile = epFile();
+        if (epFile >= 0) {
+            hash ^= Zobrist.EN_PASSANT[epFile];
+        }
+        state &= ~EP_MASK;
+        if (move != Move.NONE) {
+            int to = Move.to(move);
+            PieceType piece = pieceAt(to);
+            if ((piece == PieceType.WP || piece == PieceType.BP) && Math.abs(to - Move.from(move)) == 16) {
+                state |= (fileOf(to) + 1) << EP_SHIFT;
+                hash ^= Zobrist.EN_PASSANT[fileOf(to)];
+            }
+        }
+    }
+
+    public void setHalfmoveClock(int plies) {
+        state = (state & ~CLOCK_MASK) | (Math.min(Math.max(plies, 0), MAX_CLOCK) << CLOCK_SHIFT);
+    }
+
+    // queries
+
+    public PieceType pieceAt(int square) {
+        byte index = mailbox[square];
+        return index == EMPTY ? null : TYPES[index];
+    }
+
+    public boolean isOccupied(int square) {
+        return (occupied & (1L << square)) != 0;
+    }
+
+    public boolean isOccupiedBy(int square, int color) {
+        return (colors[color] & (1L << square)) != 0;
+    }
+
+    public int sideToMove() {
+        return (state >>> SIDE_SHIFT) & 1;
+    }
+
+    public int halfmoveClock() {
+        return (state & CLOCK_MASK) >>> CLOCK_SHIFT;
+    }
+
+    public int fullmoveNumber() {
+        return fullmoveNumber;
+    }
+
+    /** @return the file of a pawn that just moved two squares, -1 if there is none */
+    public int epFile() {
+        return ((state & EP_MASK) >>> EP_SHIFT) - 1;
+    }
+
+    /** @return the state word, see the layout at the top; two positions with the same pieces and word play the same */
+    public int state() {
+        return state;
+    }
+
+    /** @return the 64-bit Zobrist key of this position */
+    public long hash() {
+        return hash;
+    }
+
+    /** Works the key out from scratch, for checking the incremental one. */
+    public long computeHash() {
+        long key = 0L;
+        for (long bb = occupied; bb != 0; bb &= bb - 1) {
+            int sq = Long.numberOfTrailingZeros(bb);
+            key ^= Zobrist.PIECES[mailbox[sq]][sq];
+        }
+        if (sideToMove() == BLACK) {
+            key ^= Zobrist.SIDE;
+        }
+        key ^= Zobrist.CASTLING[castlingRights()];
+        if (epFile() >= 0) {
+            key ^= Zobrist.EN_PASSANT[epFile()];
+        }
+        return key;
+    }
+
+    /**
+     * @return the material and piece-square score in centipawns from the side
+     *         to move's point of view, tapered between middlegame and endgame
+     */
+    public int evaluate() {
+        assert evaluateFromScratch() == evaluateWhite() : "incremental evaluation out of step at " + Fen.toString(this);
+        int score = evaluateWhite();
+        return sideToMove() == WHITE ? score : -score;
+    }
+
+    private int evaluateWhite() {
+        return Evaluation.taper(middlegame, endgame, phase);
+    }
+
+    /**
+     * Works the evaluation out from the pieces, for checking the incremental
+     * one; evaluate does so itself when assertions are enabled (java -ea).
+     *
+     * @return the score from white's point of view
+     */
+    public int evaluateFromScratch() {
+        int mg = 0;
+        int eg = 0;
+        int ph = 0;
+        for (long bb = occupied; bb != 0; bb &= bb - 1) {
+            int sq = Long.numberOfTrailingZeros(bb);
+            mg += Evaluation.MIDDLEGAME[mailbox[sq]][sq];
+            eg += Evaluation.ENDGAME[mailbox[sq]][sq];
+            ph += Evaluation.PHASE[mailbox[sq]];
+        }
+        return Evaluation.taper(mg, eg, ph);
+    }
+
+    /** @return how many pieces of the type are on the board */
+    public int count(PieceType type) {
+        return (int) ((material >>> (MATERIAL_BITS * type.ordinal())) & MATERIAL_COUNT);
+    }
+
+    /**
+     * @return how many times the position was on the board before, with the
+     *         same side to move, rights and en passant file. Only the moves
+     *         since the last capture or pawn move are looked at, since none
+     *         before it can come back, and only moves made on this Position
+     *         since it was last cleared or copied are known.
+     */
+    public int repetitions() {
+        int count = 0;
+        int back = Math.min(halfmoveClock(), undoCount);
+        for (int ply = 2; ply <= back; ply += 2) { // same side to move
+            if (undoHash[undoCount - ply] == hash) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return whether neither side can ever checkmate, whatever is played:
+     *         only kings and at most one knight or bishop, or only kings and
+     *         bishops that all stand on squares of one colour
+     */
+    public boolean isInsufficientMaterial() {
+        if ((material & PAWNS_ROOKS_QUEENS) != 0) {
+            return false;
+        }
+        int knights = count(PieceType.WN) + count(PieceType.BN);
+        int bishops = count(PieceType.WB) + count(PieceType.BB);
+        if (knights + bishops <= 1) {
+            return true;
+        }
+        long allBishops = pieces[PieceType.WB.ordinal()] | pieces[PieceType.BB.ordinal()];
+        return knights == 0 && ((allBishops & LIGHT_SQUARES) == 0 || (allBishops & ~LIGHT_SQUARES) == 0);
+    }
+
+    private static long materialMask(PieceType... types) {
+        long mask = 0L;
+        for (PieceType type : types) {
+            mask |= MATERIAL_COUNT << (MATERIAL_BITS * type.ordinal());
+        }
+        return mask;
+    }
+
+    /** @return the castling right bits */
+    public int castlingRights() {
+        return state & CASTLING_MASK;
+    }
+
+    /** @return whether the king or rook on the square has lost the castling rights it had; true for any other square */
+    public boolean hasMoved(int square) {
+        return (state & RIGHTS_ON[square]) == 0;
+    }
+
+    public long pieces(PieceType type) {
+        return pieces[type.ordinal()];
+    }
+
+    public long occupied(int color) {
+        return colors[color];
+    }
+
+    public long occupied() {
+        return occupied;
+    }
+
+    /**
+     * Whether any piece of the given colour attacks the square, looked up in
+     * the Attacks tables: the square is attacked by a knight exactly when a
+     * knight standing on it would attack that knight, and so on for each piece.
+     */
+    public boolean isSquareAttackedBy(int square, int color) {
+        boolean white = color == WHITE;
+        long pawns = pieces[(white ? PieceType.WP : PieceType.BP).ordinal()];
+        long knights = pieces[(white ? PieceType.WN : PieceType.BN).ordinal()];
+        long king = pieces[(white ? PieceType.WK : PieceType.BK).ordinal()];
+        long queens = pieces[(white ? PieceType.WQ : PieceType.BQ).ordinal()];
+        long rooks = pieces[(white ? PieceType.WR : PieceType.BR).ordinal()] | queens;
+        long bishops = pieces[(white ? PieceType.WB : PieceType.BB).ordinal()] | queens;
+
+        return (Attacks.pawn(opponent(color), square) & pawns) != 0
+                || (Attacks.knight(square) & knights) != 0
+                || (Attacks.king(square) & king) != 0
+                || (Attacks.rook(square, occupied) & rooks) != 0
+                || (Attacks.bishop(square, occupied) & bishops) != 0;
+    }
+
+    /** @return true if the given side's king is attacked */
+    public boolean isInCheck(int color) {
+        int king = kingSquare(color);
+        return king >= 0 && isSquareAttackedBy(king, opponent(color));
+    }
+
+    /** @return the square of the given side's king, or -1 if it is not on the board */
+    public int kingSquare(int color) {
+        long king = pieces[color == WHITE ? PieceType.WK.ordinal() : PieceType.BK.ordinal()];
+        return king == 0 ? -1 : Long.numberOfTrailingZeros(king);
+    }
+
+    /** Builds the list the assignment's ReturnPlay expects. */
+    public ArrayList<ReturnPiece> toList() {
+        ArrayList<ReturnPiece> list = new ArrayList<>(Long.bitCount(occupied));
+        for (long bb = occupied; bb != 0; bb &= bb - 1) {
+            int sq = Long.numberOfTrailingZeros(bb);
+            ReturnPiece piece = new ReturnPiece();
+            piece.pieceType = TYPES[mailbox[sq]];
+            piece.pieceFile = FILES[fileOf(sq)];
+            piece.pieceRank = rankOf(sq);
+            list.add(piece);
+        }
+        return list;
+    }
+}
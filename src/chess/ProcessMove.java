@@ -3,102 +3,67 @@ package chess;
 
 
 import chess.Chess.Player;
+import chess.ReturnPiece.PieceType;
 
 
 public class ProcessMove {
     
 
-    public static ReturnPlay.Message processMove(String move) {
+    public static ReturnPlay.Message processMove(Game game, int move) {
 
-		String moveFrom = move.substring(0, 2);
-		String moveTo = move.substring(3, 5);
-		ReturnPiece movingPiece = Chess.getPieceAt(moveFrom);
+		Position board = game.position();
 
-		if (!LegalCheck.isLegalMove(move, Chess.board)) {
+		int moveFrom = Move.from(move);
+		PieceType movingPiece = board.pieceAt(moveFrom);
+
+		if (!LegalCheck.isLegalMove(move, board)) {
 			return ReturnPlay.Message.ILLEGAL_MOVE;
 		}
 	
 		// Check if the player is moving their own piece
-		if (movingPiece == null || Chess.isWhitePiece(movingPiece.pieceType) != (Chess.currentPlayer == Player.white)) {
+		if (movingPiece == null || Chess.isWhitePiece(movingPiece) != (game.currentPlayer() == Player.white)) {
 			return ReturnPlay.Message.ILLEGAL_MOVE;
 		}
 
 
 		// Check for castling moves:
-		if (Castle.matchesCastlePattern(move)) {
-			if (Castle.canCastle(move, Chess.board)) {
-				Castle.makeCastlingMove(move);
-				// Switch player after successful castling:
-				Chess.currentPlayer = (Chess.currentPlayer == Player.white) ? Player.black : Player.white;
-				return null;  // Successfully castled so no message is needed
-			} else {
+		if ((movingPiece == PieceType.WK || movingPiece == PieceType.BK) && Castle.matchesCastlePattern(move)) {
+			if (!Castle.canCastle(move, board)) {
 				return ReturnPlay.Message.ILLEGAL_MOVE;
 			}
+			Castle.makeCastlingMove(move, board);
+		} else if (PawnPromo.checkPawnPromotion(move, board)) {
+			// Check for pawn promotion:
+			PawnPromo.promotePawn(move, board);
+		} else {
+			//make move, en passant captures included; a promotion letter on any other move is ignored
+			board.makeMove(Move.of(moveFrom, Move.to(move)));
 		}
 
+		// makeMove handed the turn over, so the mover is now the opponent of currentPlayer
+		Player mover = (game.currentPlayer() == Player.white) ? Player.black : Player.white;
 
-
-		// Check for pawn promotion:
-		if (PawnPromo.checkPawnPromotion(move, Chess.board)) {
-			PawnPromo.promotePawn(move, Chess.board);
-
-			// Check if opponent king is in check/checkmate after pawn promotion
-			if (CheckMate.isInCheckMate(Chess.currentPlayer, Chess.board)) {
-				return (Chess.currentPlayer == Player.white) ? ReturnPlay.Message.CHECKMATE_WHITE_WINS : ReturnPlay.Message.CHECKMATE_BLACK_WINS;
-			} else if (Check.isInCheck(Chess.currentPlayer, Chess.board)) {
-				return ReturnPlay.Message.CHECK;
-			}
-
-			// Switch player after successful pawn promotion
-			Chess.currentPlayer = (Chess.currentPlayer == Player.white) ? Player.black : Player.white;
-			return null;  // Pawn successfully promoted so no message is needed
-		}
-	
-
-
-		// Save the piece at the target location
-		ReturnPiece pieceAtTarget = Chess.getPieceAt(moveTo);
-
-		// Remove the piece at the target location if it exists (capture)
-		if (pieceAtTarget != null) {
-			Chess.board.remove(pieceAtTarget);
-		}
-
-		//make move
-		Chess.movePiece(movingPiece, moveTo);
-
-		Chess.currentPlayer = (Chess.currentPlayer == Player.white) ? Player.black : Player.white;
-		
 		// Check if the king is threatened after the move
-		if (Check.isInCheck(Chess.currentPlayer, Chess.board)) {
-			// If the king is in check, revert the move
-			Chess.movePiece(movingPiece, moveFrom); // Move the piece back
-			if (pieceAtTarget != null) {
-				Chess.board.add(pieceAtTarget); // Put the taken piece back
-			}
-			Chess.currentPlayer = (Chess.currentPlayer == Player.white) ? Player.black : Player.white;
+		if (Check.isInCheck(game.currentPlayer(), board)) {
+			// If the king is in check, take the move back exactly as it was
+			board.unmakeMove();
 			return ReturnPlay.Message.ILLEGAL_MOVE;
 		}
-			
-
-		Chess.currentPlayer = (Chess.currentPlayer == Player.white) ? Player.black : Player.white;
+		game.moveMade(move); // the move stands, journal it if the game is journaled
 
 		//check if opponent king is in check/checkmate after move
-		if (CheckMate.isInCheckMate(Chess.currentPlayer, Chess.board)) {
-		return (Chess.currentPlayer == Player.white) ? ReturnPlay.Message.CHECKMATE_WHITE_WINS : ReturnPlay.Message.CHECKMATE_BLACK_WINS;
+		if (CheckMate.isInCheckMate(mover, board)) {
+			return (mover == Player.white) ? ReturnPlay.Message.CHECKMATE_WHITE_WINS : ReturnPlay.Message.CHECKMATE_BLACK_WINS;
 		}
-		if (Check.isInCheck(Chess.currentPlayer, Chess.board)) {
-			Chess.currentPlayer = (Chess.currentPlayer == Player.white) ? Player.black : Player.white;
+		// stalemate, repetition, the fifty-move rule and dead positions end the game, check or not
+		ReturnPlay.Message draw = Draw.afterMove(board);
+		if (draw != null) {
+			return draw;
+		}
+		if (Check.isInCheck(mover, board)) {
 			return ReturnPlay.Message.CHECK;
 		}
 
-		Chess.hasMoved.put(movingPiece, true);
-
-
-
-		// Switch player after a successful move
-		Chess.currentPlayer = (Chess.currentPlayer == Player.white) ? Player.black : Player.white;
-
 		return null;  // Successfully moved so no message is needed
 	}
 }
@@ -0,0 +1,488 @@
+package chess;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+import chess.ReturnPiece.PieceType;
+
+/**
+ * Finds a move for the side to move: a principal variation alpha-beta search
+ * under iterative deepening, with a quiescence search on captures at the
+ * leaves.
+ *
+ * Moves are tried in the order most likely to cut the tree short: the move
+ * the TranspositionTable remembers, then captures by most valuable victim
+ * and least valuable attacker (MVV-LVA), then the two killer moves that
+ * caused a cutoff at the same ply, then quiet moves by their history score.
+ *
+ * The search stops the moment it runs out of time or nodes, checking the
+ * clock every CHECK_EVERY nodes, and answers with the best move of the last
+ * iteration it finished. A new iteration is not started once half of the
+ * time is gone, since it would hardly ever finish. So a reply never takes
+ * much longer than the time it was given, however loaded the machine is.
+ *
+ * Everything is preallocated per Search object and moves are made and unmade
+ * on one Position, so searching does not allocate. One Search must only be
+ * used by one thread at a time; the table may be shared.
+ *
+ * Usage:
+ *   java chess.Search [-t millis] [-n nodes] [-d depth] [-hash MB] [-tb directory] ["fen"]
+ */
+public class Search {
+
+    public static final int INFINITE = 32000;
+    public static final int MATE = 31000; // score of mate on the board, less one per ply to get there
+    public static final int MAX_PLY = 100;
+
+    /** How many nodes go by between looks at the clock. */
+    static final int CHECK_EVERY = 256;
+
+    // material in centipawns by PieceType ordinal for ordering captures, the king is never captured
+    static final int[] VALUE = { 100, 500, 320, 330, 900, 0, 100, 500, 320, 330, 0, 900 };
+
+    // move ordering bands, highest first
+    private static final int HASH_MOVE = 1 << 30;
+    private static final int CAPTURE = 1 << 28;
+    private static final int KILLER = 1 << 27;
+    private static final int HISTORY_MAX = 1 << 26;
+
+    private final TranspositionTable table;
+    private final Position position = new Position();
+
+    private final int[][] moves = new int[MAX_PLY + 1][MoveGenerator.MAX_MOVES];
+    private final int[][] order = new int[MAX_PLY + 1][MoveGenerator.MAX_MOVES];
+    private final int[][] killers = new int[MAX_PLY + 1][2];
+    private final int[][] history = new int[PieceType.values().length][64];
+    private final int[][] pv = new int[MAX_PLY + 1][MAX_PLY + 1];
+    private final int[] pvLength = new int[MAX_PLY + 1];
+
+    private long nodes;
+    private long nodeLimit;
+    private long deadline;
+    private boolean stopped;
+    private volatile boolean stopRequested;
+
+    private Consumer<Result> listener;
+    private Tablebase tablebase;
+
+    /** What a search found. */
+    public static class Result {
+        public final int bestMove;
+        public final int score;
+        public final int depth;
+        public final long nodes;
+        public final long millis;
+        public final int[] pv;
+
+        Result(int bestMove, int score, int depth, long nodes, long millis, int[] pv) {
+            this.bestMove = bestMove;
+            this.score = score;
+            this.depth = depth;
+            this.nodes = nodes;
+            this.millis = millis;
+            this.pv = pv;
+        }
+
+        /** @return the best move as Chess.play takes it, e.g. "e2 e4", or null if there is no legal move */
+        public String move() {
+            return bestMove == Move.NONE ? null : Move.toString(bestMove);
+        }
+
+        public long nps() {
+            return nodes * 1000 / Math.max(1, millis);
+        }
+
+        /** @return true if the score is a forced mate for either side */
+        public boolean isMate() {
+            return Math.abs(score) >= MATE - MAX_PLY;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder out = new StringBuilder(128);
+            out.append("depth ").append(depth);
+            if (isMate()) {
+                int plies = MATE - Math.abs(score);
+                out.append(" score mate ").append(score > 0 ? (plies + 1) / 2 : -(plies + 1) / 2);
+            } else {
+                out.append(" score cp ").append(score);
+            }
+            out.append(" nodes ").append(nodes).append(" nps ").append(nps()).append(" time ").append(millis).append(" pv");
+            for (int move : pv) {
+                out.append(' ').append(Move.toString(move).replace(' ', '-'));
+            }
+            return out.toString();
+        }
+    }
+
+    public Search(TranspositionTable table) {
+        this.table = table;
+    }
+
+    public static void main(String[] args) throws IOException {
+        long millis = 5000;
+        long nodeLimit = Long.MAX_VALUE;
+        int depth = MAX_PLY;
+        long megabytes = 64;
+        String tablebases = null;
+        String fen = Fen.START;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-t") && i + 1 < args.length) {
+                millis = Long.parseLong(args[++i]);
+            } else if (args[i].equals("-n") && i + 1 < args.length) {
+                nodeLimit = Long.parseLong(args[++i]);
+            } else if (args[i].equals("-d") && i + 1 < args.length) {
+                depth = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-hash") && i + 1 < args.length) {
+                megabytes = Long.parseLong(args[++i]);
+            } else if (args[i].equals("-tb") && i + 1 < args.length) {
+                tablebases = args[++i];
+            } else {
+                fen = args[i];
+            }
+        }
+        Position root = new Position();
+        Fen.load(root, fen);
+        Search search = new Search(new TranspositionTable(megabytes));
+        search.onIteration(result -> System.out.println("info " + result));
+        Tablebase tablebase = tablebases == null ? null : new Tablebase(Paths.get(tablebases));
+        search.useTablebase(tablebase);
+        Result result = search.search(root, millis, nodeLimit, depth);
+        System.out.println("bestmove " + result.move());
+        if (tablebase != null) {
+            tablebase.close();
+        }
+    }
+
+    /** Calls the listener with the result of every iteration that finishes, or nobody if it is null. */
+    public void onIteration(Consumer<Result> listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Scores positions the tablebases cover from them instead of searching
+     * on, or searches everything if it is null. The root is always searched,
+     * so there is still a move to play.
+     */
+    public void useTablebase(Tablebase tablebase) {
+        this.tablebase = tablebase;
+    }
+
+    /** Makes a running search return as soon as it notices, from any thread. */
+    public void stop() {
+        stopRequested = true;
+    }
+
+    /** Forgets a stop, for a helper about to be handed to iterate. */
+    void clearStop() {
+        stopRequested = false;
+    }
+
+    /** Searches for at most the given time. */
+    public Result search(Position root, long millis) {
+        return search(root, millis, Long.MAX_VALUE, MAX_PLY);
+    }
+
+    /**
+     * Searches until the time or node budget runs out or the depth is reached,
+     * whichever comes first. The root position is not changed.
+     */
+    public Result search(Position root, long millis, long maxNodes, int maxDepth) {
+        stopRequested = false;
+        if (table != null) {
+            table.newSearch();
+        }
+        return iterate(root, millis, maxNodes, maxDepth, 1, true);
+    }
+
+    /**
+     * The iterative deepening loop behind search, starting at firstDepth. It
+     * neither clears a stop asked for before it started nor starts a new table
+     * generation, so ParallelSearch can run it on helper threads. Only the
+     * leader skips an iteration it has no time left to finish; helpers go on
+     * until they are stopped.
+     */
+    Result iterate(Position root, long millis, long maxNodes, int maxDepth, int firstDepth, boolean leader) {
+        long start = System.nanoTime();
+        deadline = start + Math.min(millis, Long.MAX_VALUE / 4_000_000) * 1_000_000;
+        nodeLimit = maxNodes;
+        nodes = 0;
+        stopped = false;
+        position.copyFrom(root);
+        for (int[] k : killers) {
+            Arrays.fill(k, Move.NONE);
+        }
+        for (int[] h : history) {
+            Arrays.fill(h, 0);
+        }
+
+        // something legal to answer with even if the first iteration can't finish
+        int[] rootMoves = moves[0];
+        int count = MoveGenerator.generateLegalMoves(position, rootMoves);
+        Result best = new Result(count > 0 ? rootMoves[0] : Move.NONE,
+                count > 0 ? 0 : (position.isInCheck(position.sideToMove()) ? -MATE : 0), 0, 0, 0, new int[0]);
+        if (count == 0) {
+            return best;
+        }
+
+        for (int depth = firstDepth; depth <= Math.min(maxDepth, MAX_PLY); depth++) {
+            int score = search(-INFINITE, INFINITE, depth, 0);
+            if (stopped || pvLength[0] == 0) {
+                break;
+            }
+            long elapsed = (System.nanoTime() - start) / 1_000_000;
+            best = new Result(pv[0][0], score, depth, nodes, elapsed, Arrays.copyOf(pv[0], pvLength[0]));
+            if (listener != null) {
+                listener.accept(best);
+            }
+            if (leader && System.nanoTime() - start > (deadline - start) / 2
+                    || best.isMate() && MATE - Math.abs(score) <= depth) {
+                break;
+            }
+        }
+        return best;
+    }
+
+    private int search(int alpha, int beta, int depth, int ply) {
+        pvLength[ply] = 0;
+        if (depth <= 0 || ply >= MAX_PLY) {
+            return quiesce(alpha, beta, ply);
+        }
+        if (countNode()) {
+            return 0;
+        }
+        if (ply > 0 && (position.halfmoveClock() >= Draw.FIFTY_MOVES || position.repetitions() > 0)) {
+            return 0; // fifty move rule, or a position seen before that can be repeated again
+        }
+        if (tablebase != null && ply > 0) {
+            int score = tablebase.probe(position);
+            if (score != Tablebase.UNKNOWN) {
+                // a mate in n from here is a mate in n + ply from the root
+                return score > 0 ? score - ply : score < 0 ? score + ply : 0;
+            }
+        }
+
+        boolean pvNode = beta - alpha > 1;
+        long key = position.hash();
+        int hashMove = Move.NONE;
+        if (table != null) {
+            long data = table.probe(key);
+            if (data != TranspositionTable.MISS) {
+                hashMove = TranspositionTable.move(data);
+                int score = fromTable(TranspositionTable.score(data), ply);
+                int bound = TranspositionTable.bound(data);
+                if (!pvNode && ply > 0 && TranspositionTable.depth(data) >= depth
+                        && (bound == TranspositionTable.BOUND_EXACT
+                            || bound == TranspositionTable.BOUND_LOWER && score >= beta
+                            || bound == TranspositionTable.BOUND_UPPER && score <= alpha)) {
+                    return score;
+                }
+            }
+        }
+
+        int side = position.sideToMove();
+        boolean inCheck = position.isInCheck(side);
+        if (inCheck) {
+            depth++; // look one ply further so checks don't hide a threat past the horizon
+        }
+
+        int[] list = moves[ply];
+        int count = MoveGenerator.generateLegalMoves(position, list);
+        if (count == 0) {
+            return inCheck ? -MATE + ply : 0;
+        }
+        scoreMoves(list, count, ply, hashMove);
+
+        int originalAlpha = alpha;
+        int bestScore = -INFINITE;
+        int bestMove = Move.NONE;
+        for (int i = 0; i < count; i++) {
+            int move = next(list, order[ply], i, count);
+            position.makeMove(move);
+            int score;
+            if (i == 0) {
+                score = -search(-beta, -alpha, depth - 1, ply + 1);
+            } else {
+                // prove the move is no better than the best so far with a null window, search again if it is
+                score = -search(-alpha - 1, -alpha, depth - 1, ply + 1);
+                if (score > alpha && score < beta) {
+                    score = -search(-beta, -alpha, depth - 1, ply + 1);
+                }
+            }
+            position.unmakeMove();
+            if (stopped) {
+                return 0;
+            }
+
+            if (score > bestScore) {
+                bestScore = score;
+                bestMove = move;
+                if (score > alpha) {
+                    alpha = score;
+                    updatePv(ply, move);
+                    if (score >= beta) {
+                        if (!isCapture(move)) {
+                            rememberQuiet(move, depth, ply);
+                        }
+                        break;
+                    }
+                }
+            }
+        }
+
+        if (table != null) {
+            int bound = bestScore >= beta ? TranspositionTable.BOUND_LOWER
+                    : bestScore > originalAlpha ? TranspositionTable.BOUND_EXACT : TranspositionTable.BOUND_UPPER;
+            table.store(key, depth, bound, bestMove, toTable(bestScore, ply));
+        }
+        return bestScore;
+    }
+
+    /** Plays out captures until the position is quiet, so the evaluation isn't taken in the middle of an exchange. */
+    private int quiesce(int alpha, int beta, int ply) {
+        pvLength[ply] = 0;
+        if (countNode()) {
+            return 0;
+        }
+        boolean inCheck = position.isInCheck(position.sideToMove());
+        int[] list = moves[Math.min(ply, MAX_PLY)];
+        int count;
+        int bestScore;
+        if (inCheck) {
+            // standing pat is not an option in check, every evasion has to be tried
+            count = MoveGenerator.generateLegalMoves(position, list);
+            if (count == 0) {
+                return -MATE + ply;
+            }
+            bestScore = -INFINITE;
+        } else {
+            bestScore = position.evaluate();
+            if (bestScore >= beta || ply >= MAX_PLY) {
+                return bestScore;
+            }
+            alpha = Math.max(alpha, bestScore);
+            count = MoveGenerator.generateLegalCaptures(position, list);
+        }
+        if (ply >= MAX_PLY) {
+            return position.evaluate();
+        }
+        scoreMoves(list, count, ply, Move.NONE);
+
+        for (int i = 0; i < count; i++) {
+            int move = next(list, order[ply], i, count);
+            position.makeMove(move);
+            int score = -quiesce(-beta, -alpha, ply + 1);
+            position.unmakeMove();
+            if (stopped) {
+                return 0;
+            }
+            if (score > bestScore) {
+                bestScore = score;
+                if (score > alpha) {
+                    alpha = score;
+                    updatePv(ply, move);
+                    if (score >= beta) {
+                        break;
+                    }
+                }
+            }
+        }
+        return bestScore;
+    }
+
+    /** Counts a node and looks at the budget now and then. @return true if the search has to stop */
+    private boolean countNode() {
+        nodes++;
+        if (nodes >= nodeLimit) {
+            stopped = true;
+        } else if ((nodes & (CHECK_EVERY - 1)) == 0 && (stopRequested || System.nanoTime() - deadline > 0)) {
+            stopped = true;
+        }
+        return stopped;
+    }
+
+    private void scoreMoves(int[] list, int count, int ply, int hashMove) {
+        int[] scores = order[ply];
+        int[] killer = killers[ply];
+        for (int i = 0; i < count; i++) {
+            int move = list[i];
+            if ((move & 0xFFFF) == (hashMove & 0xFFFF) && hashMove != Move.NONE) {
+                scores[i] = HASH_MOVE;
+            } else if (isCapture(move) || Move.promotion(move) != Move.PROMO_NONE) {
+                int attacker = position.mailbox[Move.from(move)];
+                int victim = Move.has(move, Move.FLAG_EN_PASSANT) ? 0 : position.mailbox[Move.to(move)];
+                int victimValue = victim < 0 ? 0 : VALUE[victim];
+                int promotion = Move.promotion(move) == Move.PROMO_QUEEN ? VALUE[4] : 0;
+                scores[i] = CAPTURE + (victimValue + promotion) * 16 - VALUE[attacker] / 10;
+            } else if (move == killer[0]) {
+                scores[i] = KILLER + 1;
+            } else if (move == killer[1]) {
+                scores[i] = KILLER;
+            } else {
+                scores[i] = history[position.mailbox[Move.from(move)]][Move.to(move)];
+            }
+        }
+    }
+
+    /** Swaps the best of the moves not tried yet into place i and returns it. */
+    private static int next(int[] list, int[] scores, int i, int count) {
+        int best = i;
+        for (int j = i + 1; j < count; j++) {
+            if (scores[j] > scores[best]) {
+                best = j;
+            }
+        }
+        int move = list[best];
+        list[best] = list[i];
+        list[i] = move;
+        int score = scores[best];
+        scores[best] = scores[i];
+        scores[i] = score;
+        return move;
+    }
+
+    private boolean isCapture(int move) {
+        return position.isOccupied(Move.to(move)) || Move.has(move, Move.FLAG_EN_PASSANT);
+    }
+
+    private void rememberQuiet(int move, int depth, int ply) {
+        int[] killer = killers[ply];
+        if (killer[0] != move) {
+            killer[1] = killer[0];
+            killer[0] = move;
+        }
+        int[] scores = history[position.mailbox[Move.from(move)]];
+        scores[Move.to(move)] += depth * depth;
+        if (scores[Move.to(move)] > HISTORY_MAX) {
+            for (int[] h : history) {
+                for (int sq = 0; sq < 64; sq++) {
+                    h[sq] /= 2;
+                }
+            }
+        }
+    }
+
+    private void updatePv(int ply, int move) {
+        // the child at ply + 1 has just filled in its own line
+        int length = pvLength[ply + 1];
+        pv[ply][0] = move;
+        System.arraycopy(pv[ply + 1], 0, pv[ply], 1, length);
+        pvLength[ply] = length + 1;
+    }
+
+    // mate scores are kept relative to the node in the table, so they mean the same wherever it is hit
+
+    private static int toTable(int score, int ply) {
+        return score >= MATE - MAX_PLY ? score + ply : score <= -MATE + MAX_PLY ? score - ply : score;
+    }
+
+    private static int fromTable(int score, int ply) {
+        return score >= MATE - MAX_PLY ? score - ply : score <= -MATE + MAX_PLY ? score + ply : score;
+    }
+
+    public long nodes() {
+        return nodes;
+    }
+}
@@ -0,0 +1,364 @@
+package chess;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+/**
+ * Hosts many live games at once, each behind its own mailbox.
+ *
+ * Moves sent to a game go into that game's queue and are played one after
+ * the other in the order they arrived, so a Game (which is not thread-safe)
+ * only ever sees one thread at a time. A game with work queued takes one
+ * task on the shared pool to drain it; games with nothing queued take none.
+ * Different games drain in parallel on every core, and nothing is locked
+ * across games: the session map is a ConcurrentHashMap and each mailbox is
+ * a lock-free queue with two counters.
+ *
+ * A game that drains a long queue hands its thread back after BATCH moves
+ * and queues itself again, so one busy game can't starve the others. If
+ * the executor won't take it back, the game goes on draining where it is;
+ * if it won't take a game that has to start draining, every move queued for
+ * that game fails with the RejectedExecutionException.
+ *
+ * Each game's queue is capped. A move that would go past the cap is not
+ * queued; its future fails with RejectedExecutionException right away, which
+ * is the caller's signal to slow down.
+ *
+ * Given a Journal, the manager starts with the games the journal recovered
+ * and records every game's moves in it. A move's future then completes once
+ * its record is on disk, which the journal does for all games at once every
+ * few milliseconds, so a game doesn't wait for the others. checkpoint
+ * writes every live game out so the journal can drop what came before.
+ */
+public class SessionManager implements AutoCloseable {
+
+    /** Moves a game plays before giving its thread back to the pool. */
+    static final int BATCH = 64;
+
+    private final ConcurrentHashMap<Long, Session> sessions = new ConcurrentHashMap<>();
+    private final AtomicLong nextId = new AtomicLong();
+    private final Executor executor;
+    private final ForkJoinPool ownPool; // null when the caller supplied the executor
+    private final int maxQueueDepth;
+    private final Journal journal; // null if games aren't journaled
+
+    // creating a game takes it shared, checkpoint exclusively, so no game slips between the two
+    private final ReentrantReadWriteLock checkpointLock = new ReentrantReadWriteLock();
+
+    /** Runs games on a pool with one thread per core. */
+    public SessionManager(int maxQueueDepth) {
+        this(new ForkJoinPool(Runtime.getRuntime().availableProcessors(),
+                ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true), maxQueueDepth, true);
+    }
+
+    public SessionManager(Executor executor, int maxQueueDepth) {
+        this(executor, maxQueueDepth, false);
+    }
+
+    /** Runs games on a pool with one thread per core and journals them, starting with the games it recovered. */
+    public SessionManager(int maxQueueDepth, Journal journal) {
+        this(new ForkJoinPool(Runtime.getRuntime().availableProcessors(),
+                ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true), maxQueueDepth, true, journal);
+    }
+
+    private SessionManager(Executor executor, int maxQueueDepth, boolean owned) {
+        this(executor, maxQueueDepth, owned, null);
+    }
+
+    private SessionManager(Executor executor, int maxQueueDepth, boolean owned, Journal journal) {
+        if (maxQueueDepth < 1) {
+            throw new IllegalArgumentException("maxQueueDepth must be at least 1: " + maxQueueDepth);
+        }
+        this.executor = executor;
+        this.ownPool = owned ? (ForkJoinPool) executor : null;
+        this.maxQueueDepth = maxQueueDepth;
+        this.journal = journal;
+        if (journal != null) {
+            for (Map.Entry<Long, Game> entry : journal.recovered().entrySet()) {
+                long id = entry.getKey();
+                Game game = entry.getValue();
+                game.journalTo(journal, id, game.journalRecords());
+                sessions.put(id, new Session(game));
+                if (id > nextId.get()) {
+                    nextId.set(id);
+                }
+            }
+        }
+    }
+
+    /**
+     * Starts a new game in the starting position.
+     *
+     * @return the id to send its moves to
+     */
+    public long create() {
+        long id = nextId.incrementAndGet();
+        Game game = new Game();
+        if (journal == null) {
+            sessions.put(id, new Session(game));
+            return id;
+        }
+        checkpointLock.readLock().lock();
+        try {
+            game.journalTo(journal, id, 0);
+            game.start(); // already is, but this journals it
+            sessions.put(id, new Session(game));
+        } finally {
+            checkpointLock.readLock().unlock();
+        }
+        return id;
+    }
+
+    /**
+     * Queues a move, or any other line Chess.play understands, for the game.
+     *
+     * @return completes with the game's answer once the move has been played;
+     *         fails with IllegalArgumentException for an unknown game and with
+     *         RejectedExecutionException when the game's queue is full, and
+     *         with UncheckedIOException once the journal has failed
+     */
+    public CompletableFuture<ReturnPlay> submit(long id, String move) {
+        Session session = sessions.get(id);
+        if (session == null) {
+            return CompletableFuture.failedFuture(new IllegalArgumentException("no game " + id));
+        }
+        IOException failure = journal == null ? null : journal.failure();
+        if (failure != null) {
+            return CompletableFuture.failedFuture(new UncheckedIOException("journal failed, no moves are played", failure));
+        }
+        return session.submit(move);
+    }
+
+    public CompletableFuture<ReturnPlay> resign(long id) {
+        return submit(id, "resign");
+    }
+
+    public CompletableFuture<ReturnPlay> reset(long id) {
+        return submit(id, "reset");
+    }
+
+    /**
+     * Forgets the game. Moves already queued are still played and their
+     * futures still complete, anything submitted afterwards fails.
+     *
+     * @return false if there was no such game
+     */
+    public boolean evict(long id) {
+        if (sessions.remove(id) == null) {
+            return false;
+        }
+        if (journal != null) {
+            journal.end(id);
+        }
+        return true;
+    }
+
+    /**
+     * Evicts every game that has had no move submitted for the given time
+     * and has nothing left in its queue.
+     *
+     * @return how many games were evicted
+     */
+    public int evictIdle(long idle, TimeUnit unit) {
+        long cutoff = System.nanoTime() - unit.toNanos(idle);
+        int evicted = 0;
+        for (var entry : sessions.entrySet()) {
+            Session session = entry.getValue();
+            if (session.depth.get() == 0 && session.lastSubmit - cutoff < 0
+                    && sessions.remove(entry.getKey(), session)) {
+                if (journal != null) {
+                    journal.end(entry.getKey());
+                }
+                evicted++;
+            }
+        }
+        return evicted;
+    }
+
+    public boolean contains(long id) {
+        return sessions.containsKey(id);
+    }
+
+    /** @return the number of live games */
+    public int size() {
+        return sessions.size();
+    }
+
+    /** @return moves queued or being played for the game, 0 if there is no such game */
+    public int queueDepth(long id) {
+        Session session = sessions.get(id);
+        return session == null ? 0 : session.depth.get();
+    }
+
+    /**
+     * Starts a new journal segment, writes every live game out as it stands
+     * once the moves queued for it are played, and deletes the segments the
+     * checkpoint replaces. Games go on being played meanwhile.
+     *
+     * @return completes once the checkpoint is written
+     * @throws IllegalStateException if the games aren't journaled
+     */
+    public CompletableFuture<Void> checkpoint() throws IOException {
+        if (journal == null) {
+            throw new IllegalStateException("no journal");
+        }
+        ConcurrentLinkedQueue<Journal.Snapshot> snapshots = new ConcurrentLinkedQueue<>();
+        ArrayList<CompletableFuture<ReturnPlay>> taken = new ArrayList<>();
+        long segment;
+        checkpointLock.writeLock().lock();
+        try {
+            segment = journal.roll();
+            for (var entry : sessions.entrySet()) {
+                long id = entry.getKey();
+                taken.add(entry.getValue().run(game ->
+                        snapshots.add(new Journal.Snapshot(id, game.journalRecords(), game.fen()))));
+            }
+        } finally {
+            checkpointLock.writeLock().unlock();
+        }
+        // not thenRun: the snapshots complete on the journal's flusher, which writing the checkpoint would hold up
+        return CompletableFuture.allOf(taken.toArray(new CompletableFuture<?>[0])).thenRunAsync(() -> {
+            try {
+                journal.checkpoint(segment, snapshots);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, executor);
+    }
+
+    /** Shuts the pool down if this manager created it, after the queued moves are played. */
+    @Override
+    public void close() {
+        if (ownPool != null) {
+            ownPool.shutdown();
+            ownPool.awaitQuiescence(1, TimeUnit.MINUTES);
+        }
+    }
+
+    /** One game and its mailbox. */
+    private final class Session {
+        final Game game;
+        final ConcurrentLinkedQueue<Task> mailbox = new ConcurrentLinkedQueue<>();
+        final AtomicInteger depth = new AtomicInteger(); // queued or running, capped at maxQueueDepth
+        final AtomicInteger wip = new AtomicInteger();   // tasks the drain loop still has to play
+        volatile long lastSubmit = System.nanoTime();
+
+        Session(Game game) {
+            this.game = game;
+        }
+
+        /** Runs the action on the game in its turn, past the queue cap; completes with null. */
+        CompletableFuture<ReturnPlay> run(Consumer<Game> action) {
+            depth.incrementAndGet();
+            return enqueue(new Task(null, action));
+        }
+
+        CompletableFuture<ReturnPlay> submit(String move) {
+            // reserve a place first, so the cap holds however many threads submit at once
+            int current;
+            do {
+                current = depth.get();
+                if (current >= maxQueueDepth) {
+                    return CompletableFuture.failedFuture(new RejectedExecutionException(
+                            "queue full: " + current + " moves waiting"));
+                }
+            } while (!depth.compareAndSet(current, current + 1));
+
+            lastSubmit = System.nanoTime();
+            return enqueue(new Task(move, null));
+        }
+
+        // the task's place in depth is already taken
+        private CompletableFuture<ReturnPlay> enqueue(Task task) {
+            mailbox.offer(task);
+            if (wip.getAndIncrement() == 0) {
+                // nobody is draining this game, so start
+                try {
+                    executor.execute(this::drain);
+                } catch (RejectedExecutionException e) {
+                    // this thread holds the drain now, and tasks other threads queued meanwhile are behind it
+                    failQueued(e);
+                }
+            }
+            return task.future;
+        }
+
+        // only ever running on one thread at a time for a given session
+        void drain() {
+            int played = 0;
+            for (;;) {
+                Task task = mailbox.poll();
+                ReturnPlay result = null;
+                Throwable failure = null;
+                try {
+                    if (task.action != null) {
+                        task.action.accept(game);
+                    } else {
+                        result = game.play(task.move);
+                    }
+                } catch (Throwable t) {
+                    failure = t;
+                }
+                complete(task, result, failure);
+                depth.decrementAndGet();
+                if (wip.decrementAndGet() == 0) {
+                    return;
+                }
+                if (++played == BATCH) {
+                    try {
+                        executor.execute(this::drain); // let other games have the thread
+                        return;
+                    } catch (RejectedExecutionException e) {
+                        played = 0; // nobody to hand over to, so go on here
+                    }
+                }
+            }
+        }
+
+        // only called by the thread holding the drain; fails tasks until none is left
+        private void failQueued(RejectedExecutionException e) {
+            do {
+                Task task = mailbox.poll();
+                depth.decrementAndGet();
+                task.future.completeExceptionally(e);
+            } while (wip.decrementAndGet() != 0);
+        }
+
+        // a journaled game's answer waits for its records to be on disk, and answers stay in order
+        private void complete(Task task, ReturnPlay result, Throwable failure) {
+            Runnable done = failure == null
+                    ? () -> task.future.complete(result)
+                    : () -> task.future.completeExceptionally(failure);
+            if (journal == null) {
+                done.run();
+            } else {
+                journal.whenDurable(game.journaled(), done, e -> task.future.completeExceptionally(
+                        new UncheckedIOException("journal failed, the move may be lost", e)));
+            }
+        }
+    }
+
+    private static final class Task {
+        final String move;
+        final Consumer<Game> action; // instead of a move, see Session.run
+        final CompletableFuture<ReturnPlay> future = new CompletableFuture<>();
+
+        Task(String move, Consumer<Game> action) {
+            this.move = move;
+            this.action = action;
+        }
+    }
+}
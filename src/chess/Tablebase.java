@@ -0,0 +1,400 @@
+package chess;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import chess.ReturnPiece.PieceType;
+
+/**
+ * Endgame tablebases: the exact result and distance to mate of every
+ * position with a few pieces against a lone king, as worked out by
+ * TablebaseGenerator.
+ *
+ * A table covers one set of pieces, named like "KBNK": the strong side's
+ * king and pieces, then the lone king. Tables are written with the strong
+ * side as white. Positions with the colours the other way round are
+ * mirrored top to bottom before they are looked up.
+ *
+ * Positions are numbered by the squares of the white king, the black king
+ * and the strong side's other pieces (queens, rooks, bishops, knights, then
+ * pawns). Boards that are only mirror images or rotations of each other are
+ * stored once:
+ *
+ *   - without pawns the white king is moved into the a1-d1-d4 triangle, 10
+ *     squares instead of 64, by one of the board's 8 symmetries;
+ *   - with pawns only the left-right mirror keeps the rules the same, so
+ *     the white king is moved to the a-d files, 32 squares.
+ *
+ * When a board can be brought into the triangle more than one way (the
+ * king on the diagonal) the smallest number wins, so each position has
+ * exactly one number.
+ *
+ * The file holds one section for white to move and one for black to move,
+ * each with one bit-packed code per position number: 0 for a draw (or an
+ * impossible board) and plies to mate + 1 otherwise. Only as many bits as
+ * the longest mate needs are used, 7 for KBNK. The lone king can never
+ * win, so the sign of the result follows from the side to move.
+ *
+ *   header, 32 bytes, little-endian
+ *     0  int    magic "CHTB"
+ *     4  short  version (1)
+ *     6  byte   bits per position
+ *     7  byte   unused
+ *     8  8 ASCII bytes, the table's name padded with spaces
+ *    16  long   positions per section
+ *    24  int    longest mate in plies
+ *    28  int    unused
+ *
+ * Tables are read through a memory mapping and probing allocates nothing,
+ * so one Tablebase can be shared by every thread.
+ *
+ * Usage:
+ *   java chess.Tablebase directory "fen"
+ */
+public class Tablebase implements AutoCloseable {
+
+    /** What probe returns for a position no table covers. */
+    public static final int UNKNOWN = Integer.MIN_VALUE;
+
+    static final int MAGIC = 'C' | ('H' << 8) | ('T' << 16) | ('B' << 24);
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 32;
+    static final String SUFFIX = ".tb";
+
+    /** The strong side's pieces, in the order they are numbered. */
+    static final PieceType[] PIECE_ORDER = { PieceType.WQ, PieceType.WR, PieceType.WB, PieceType.WN, PieceType.WP };
+    private static final PieceType[] BLACK_ORDER = { PieceType.BQ, PieceType.BR, PieceType.BB, PieceType.BN, PieceType.BP };
+    private static final String PIECE_LETTERS = "QRBNP";
+
+    /** Most pieces besides the two kings a table can hold. */
+    static final int MAX_PIECES = 2;
+
+    // SYMMETRY[t][sq] is where square sq goes under symmetry t:
+    // bit 4 swaps file and rank, then bit 1 mirrors the files and bit 2 the ranks
+    static final int[][] SYMMETRY = new int[8][64];
+
+    // for a white king square, the symmetries that take it to where it is numbered
+    private static final int[][] KING_SYMMETRIES_PAWNLESS = new int[64][];
+    private static final int[][] KING_SYMMETRIES_PAWNS = new int[64][];
+    private static final int[] KING_SLOT_PAWNLESS = new int[64];
+    private static final int[] KING_SLOT_PAWNS = new int[64];
+    static final int[] KING_SQUARE_PAWNLESS = new int[10];
+    static final int[] KING_SQUARE_PAWNS = new int[32];
+
+    static {
+        for (int t = 0; t < 8; t++) {
+            for (int sq = 0; sq < 64; sq++) {
+                int file = Position.fileOf(sq);
+                int rank = Position.rankOf(sq) - 1;
+                if ((t & 4) != 0) {
+                    int swap = file;
+                    file = rank;
+                    rank = swap;
+                }
+                if ((t & 1) != 0) file = 7 - file;
+                if ((t & 2) != 0) rank = 7 - rank;
+                SYMMETRY[t][sq] = rank * 8 + file;
+            }
+        }
+        int pawnless = 0;
+        int pawns = 0;
+        for (int sq = 0; sq < 64; sq++) {
+            int file = Position.fileOf(sq);
+            int rank = Position.rankOf(sq) - 1;
+            KING_SLOT_PAWNLESS[sq] = file <= 3 && rank <= file ? pawnless : -1;
+            if (file <= 3 && rank <= file) {
+                KING_SQUARE_PAWNLESS[pawnless++] = sq;
+            }
+            KING_SLOT_PAWNS[sq] = file <= 3 ? pawns : -1;
+            if (file <= 3) {
+                KING_SQUARE_PAWNS[pawns++] = sq;
+            }
+        }
+        for (int sq = 0; sq < 64; sq++) {
+            KING_SYMMETRIES_PAWNLESS[sq] = symmetriesInto(sq, KING_SLOT_PAWNLESS, 8);
+            KING_SYMMETRIES_PAWNS[sq] = symmetriesInto(sq, KING_SLOT_PAWNS, 2);
+        }
+    }
+
+    private static int[] symmetriesInto(int sq, int[] slots, int symmetries) {
+        int[] found = new int[symmetries];
+        int count = 0;
+        for (int t = 0; t < symmetries; t++) {
+            if (slots[SYMMETRY[t][sq]] >= 0) {
+                found[count++] = t;
+            }
+        }
+        return Arrays.copyOf(found, count);
+    }
+
+    /**
+     * How one table numbers its positions. Shared by the generator, which
+     * walks the numbers, and the reader, which looks them up.
+     */
+    static final class Layout {
+        final String name;
+        final int[] pieces;    // PieceType ordinals of the strong side's pieces, in PIECE_ORDER
+        final boolean pawns;
+        final int size;        // positions per side to move
+        final int materialKey;
+
+        Layout(String name) {
+            if (name.length() < 2 || name.length() > 2 + MAX_PIECES || name.charAt(0) != 'K'
+                    || name.charAt(name.length() - 1) != 'K') {
+                throw new IllegalArgumentException("not a table name like KQK or KBNK: " + name);
+            }
+            pieces = new int[name.length() - 2];
+            int last = -1;
+            boolean hasPawn = false;
+            for (int i = 0; i < pieces.length; i++) {
+                int kind = PIECE_LETTERS.indexOf(name.charAt(i + 1));
+                if (kind < 0 || kind < last) {
+                    throw new IllegalArgumentException("pieces have to be some of " + PIECE_LETTERS + " in that order: " + name);
+                }
+                last = kind;
+                pieces[i] = PIECE_ORDER[kind].ordinal();
+                hasPawn |= kind == 4;
+            }
+            this.name = name;
+            this.pawns = hasPawn;
+            int kingSlots = pawns ? 32 : 10;
+            this.size = kingSlots << (6 * (pieces.length + 1));
+            this.materialKey = materialKey(pieces, pieces.length);
+        }
+
+        /** @return the white king square of a position number */
+        int whiteKing(int index) {
+            int slot = index >>> (6 * (pieces.length + 1));
+            return pawns ? KING_SQUARE_PAWNS[slot] : KING_SQUARE_PAWNLESS[slot];
+        }
+
+        int blackKing(int index) {
+            return (index >>> (6 * pieces.length)) & 63;
+        }
+
+        int piece(int index, int i) {
+            return (index >>> (6 * (pieces.length - 1 - i))) & 63;
+        }
+
+        /**
+         * @param square0 square of the first of the strong side's pieces, in the order of pieces
+         * @param square1 square of the second, ignored if there is only one
+         * @return the position's number, the smallest over the symmetries that
+         *         bring the white king into place
+         */
+        int index(int whiteKing, int blackKing, int square0, int square1) {
+            int[] symmetries = pawns ? KING_SYMMETRIES_PAWNS[whiteKing] : KING_SYMMETRIES_PAWNLESS[whiteKing];
+            int best = Integer.MAX_VALUE;
+            for (int t : symmetries) {
+                int[] map = SYMMETRY[t];
+                int wk = map[whiteKing];
+                int index = (pawns ? KING_SLOT_PAWNS[wk] : KING_SLOT_PAWNLESS[wk]) << 6 | map[blackKing];
+                if (pieces.length == 1) {
+                    index = (index << 6) | map[square0];
+                } else if (pieces.length == 2) {
+                    int a = map[square0];
+                    int b = map[square1];
+                    if (pieces[0] == pieces[1] && a > b) {
+                        // two pieces of a kind are numbered in square order
+                        int swap = a;
+                        a = b;
+                        b = swap;
+                    }
+                    index = (index << 12) | (a << 6) | b;
+                }
+                best = Math.min(best, index);
+            }
+            return best;
+        }
+    }
+
+    /** @return a number for a set of strong side pieces, the same whatever order they come in */
+    static int materialKey(int[] pieces, int count) {
+        int key = 0;
+        for (int i = 0; i < count; i++) {
+            key += 1 << (3 * (pieces[i] % 6)); // white and black of a kind count the same
+        }
+        return key;
+    }
+
+    // one mapped table
+    private static final class Table {
+        final Layout layout;
+        final FileChannel channel;
+        final MappedByteBuffer data;
+        final int bits;
+        final long mask;
+        final int maxPlies;
+
+        Table(Path file) throws IOException {
+            channel = FileChannel.open(file, StandardOpenOption.READ);
+            long size = channel.size();
+            if (size < HEADER_BYTES || size > Integer.MAX_VALUE) {
+                channel.close();
+                throw new IOException("not a tablebase: " + file);
+            }
+            data = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            data.order(ByteOrder.LITTLE_ENDIAN);
+            if (data.getInt(0) != MAGIC || data.getShort(4) != VERSION) {
+                channel.close();
+                throw new IOException("not a tablebase, or a version this reader does not know: " + file);
+            }
+            bits = data.get(6);
+            mask = (1L << bits) - 1;
+            byte[] name = new byte[8];
+            data.get(8, name);
+            layout = new Layout(new String(name, StandardCharsets.US_ASCII).trim());
+            maxPlies = data.getInt(24);
+            if (data.getLong(16) != layout.size || size < HEADER_BYTES + 2 * sectionBytes(layout.size, bits)) {
+                channel.close();
+                throw new IOException("tablebase is cut short: " + file);
+            }
+        }
+
+        /** @return plies to mate + 1, or 0 for a draw */
+        int code(int index, boolean whiteToMove) {
+            long bit = (long) index * bits + (whiteToMove ? 0 : sectionBytes(layout.size, bits) * 8L);
+            int at = HEADER_BYTES + (int) (bit >>> 3);
+            return (int) ((data.getLong(at) >>> (bit & 7)) & mask);
+        }
+    }
+
+    /**
+     * Bytes one section of a table takes, with 8 bytes to spare so the last
+     * code can be read with one getLong.
+     */
+    static long sectionBytes(int positions, int bits) {
+        return ((long) positions * bits + 7) / 8 + 8;
+    }
+
+    private final Table[] tables = new Table[1 << 15]; // by materialKey
+    private int count;
+
+    /** Maps every table in the directory. */
+    public Tablebase(Path directory) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            for (Path file : files) {
+                Table table = new Table(file);
+                tables[table.layout.materialKey] = table;
+                count++;
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("usage: java chess.Tablebase directory \"fen\"");
+            System.exit(2);
+        }
+        try (Tablebase tablebase = new Tablebase(Paths.get(args[0]))) {
+            Position position = new Position();
+            Fen.load(position, args[1]);
+            System.out.println(tablebase.verdict(position));
+        }
+    }
+
+    /** @return the number of tables loaded */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Looks the position up.
+     *
+     * @return UNKNOWN if no table covers it, 0 for a draw, otherwise a mate
+     *         score from the side to move's point of view like Search's:
+     *         Search.MATE - n if the side to move mates in n plies and
+     *         -(Search.MATE - n) if it is mated in n plies
+     */
+    public int probe(Position position) {
+        long occupied = position.occupied();
+        if (Long.bitCount(occupied) > 2 + MAX_PIECES || position.castlingRights() != 0) {
+            return UNKNOWN;
+        }
+        long white = position.occupied(Position.WHITE);
+        long black = position.occupied(Position.BLACK);
+        int strong;
+        if (Long.bitCount(black) == 1) {
+            strong = Position.WHITE;
+        } else if (Long.bitCount(white) == 1) {
+            strong = Position.BLACK;
+        } else {
+            return UNKNOWN; // both sides have pieces besides the king
+        }
+
+        // the strong side's pieces in PIECE_ORDER, turned into white ones
+        int pieceCount = 0;
+        int square0 = 0;
+        int square1 = 0;
+        int kind0 = 0;
+        int kind1 = 0;
+        int flip = strong == Position.WHITE ? 0 : 56;
+        for (int kind = 0; kind < PIECE_ORDER.length; kind++) {
+            PieceType type = PIECE_ORDER[kind];
+            long bb = position.pieces(strong == Position.WHITE ? type : BLACK_ORDER[kind]);
+            for (; bb != 0; bb &= bb - 1) {
+                int sq = Long.numberOfTrailingZeros(bb) ^ flip;
+                if (pieceCount == 0) {
+                    square0 = sq;
+                    kind0 = type.ordinal();
+                } else {
+                    square1 = sq;
+                    kind1 = type.ordinal();
+                }
+                pieceCount++;
+            }
+        }
+        if (pieceCount == 0 || pieceCount == 1 && (kind0 == PieceType.WB.ordinal() || kind0 == PieceType.WN.ordinal())) {
+            return 0; // nobody can be mated
+        }
+        int key = (1 << (3 * kind0)) + (pieceCount == 2 ? 1 << (3 * kind1) : 0);
+        Table table = tables[key];
+        if (table == null) {
+            return UNKNOWN;
+        }
+
+        int whiteKing = position.kingSquare(strong) ^ flip;
+        int blackKing = position.kingSquare(Position.opponent(strong)) ^ flip;
+        int index = table.layout.index(whiteKing, blackKing, square0, square1);
+        boolean strongToMove = position.sideToMove() == strong;
+        int code = table.code(index, strongToMove);
+        if (code == 0) {
+            return 0;
+        }
+        int plies = code - 1;
+        return strongToMove ? Search.MATE - plies : -(Search.MATE - plies);
+    }
+
+    /** @return the result of the position in words, e.g. "white mates in 12" */
+    public String verdict(Position position) {
+        int score = probe(position);
+        if (score == UNKNOWN) {
+            return "not in the tablebases";
+        }
+        if (score == 0) {
+            return "draw";
+        }
+        int plies = Search.MATE - Math.abs(score);
+        boolean whiteWins = (score > 0) == (position.sideToMove() == Position.WHITE);
+        return plies == 0 ? (whiteWins ? "black is checkmated" : "white is checkmated")
+                : (whiteWins ? "white" : "black") + " mates in " + (plies + 1) / 2;
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (Table table : tables) {
+            if (table != null) {
+                table.channel.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,583 @@
+package chess;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+import chess.ReturnPiece.PieceType;
+
+/**
+ * Works out endgame tablebases (see Tablebase) by retrograde analysis:
+ * starting from every checkmate and walking the moves backwards, one ply
+ * at a time.
+ *
+ *   - level 0 is black to move and mated;
+ *   - a white-to-move position one white move before a position of level n
+ *     (n even) wins in n + 1, unless it was already found to win faster;
+ *   - a black-to-move position all of whose moves lead to positions white
+ *     has already won (n odd) loses in the longest of them + 1. Each one
+ *     keeps a count of its moves that are not yet known to lose, and it is
+ *     lost when the count gets to 0.
+ *
+ * Whatever is left when a level finds nothing new is a draw. Moves that
+ * leave the table (black taking a piece, a pawn promoting) are looked up in
+ * the smaller table they lead to, which is generated first; a lone king, or
+ * king and knight or bishop, is a draw.
+ *
+ * Moves and unmoves are generated here straight from Attacks on the
+ * squares of the three or four pieces, which is much faster than setting up
+ * a Position for each of the millions of boards. Each table is checked
+ * afterwards against the rules as MoveGenerator knows them: for a sample of
+ * positions, the stored result has to be the best result over the legal
+ * moves of the results stored for the positions they lead to.
+ *
+ * Each level is one pass over the table, split over the threads of a
+ * ForkJoinPool. Threads only ever write the same value to a result, and the
+ * move counts are atomic, so they need no locks.
+ *
+ * Usage:
+ *   java chess.TablebaseGenerator [-threads n] directory KQK KRK KPK KBNK ...
+ */
+public class TablebaseGenerator {
+
+    // results while generating; 0 and up is plies to mate
+    private static final byte UNKNOWN = -1;
+    private static final byte ILLEGAL = -2;
+    private static final byte DRAW = -3;
+
+    private static final int QUEEN = 0, ROOK = 1, BISHOP = 2, KNIGHT = 3, PAWN = 4; // indices into Tablebase.PIECE_ORDER
+    private static final int VERIFY_SAMPLES = 20000;
+
+    private final ForkJoinPool pool;
+    private final Map<Integer, Generated> done = new HashMap<>(); // by material key
+
+    // one finished table
+    private static final class Generated {
+        final Tablebase.Layout layout;
+        final int[] kinds;     // PIECE_ORDER index of each piece
+        final byte[] whiteToMove;
+        final byte[] blackToMove;
+        int maxPlies;
+        long millis;
+
+        Generated(Tablebase.Layout layout) {
+            this.layout = layout;
+            kinds = new int[layout.pieces.length];
+            for (int i = 0; i < kinds.length; i++) {
+                kinds[i] = Arrays.asList(Tablebase.PIECE_ORDER).indexOf(PieceType.values()[layout.pieces[i]]);
+            }
+            whiteToMove = new byte[layout.size];
+            blackToMove = new byte[layout.size];
+        }
+    }
+
+    public TablebaseGenerator(int threads) {
+        pool = new ForkJoinPool(threads);
+    }
+
+    public static void main(String[] args) throws IOException {
+        int threads = Runtime.getRuntime().availableProcessors();
+        Path directory = null;
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-threads") && i + 1 < args.length) {
+                threads = Integer.parseInt(args[++i]);
+            } else if (directory == null) {
+                directory = Paths.get(args[i]);
+            } else {
+                names.add(args[i]);
+            }
+        }
+        if (directory == null || names.isEmpty()) {
+            System.err.println("usage: java chess.TablebaseGenerator [-threads n] directory KQK KRK KPK KBNK ...");
+            System.exit(2);
+        }
+        Files.createDirectories(directory);
+
+        TablebaseGenerator generator = new TablebaseGenerator(threads);
+        try {
+            for (String name : names) {
+                generator.generate(name, directory);
+            }
+        } finally {
+            generator.pool.shutdown();
+        }
+
+        try (Tablebase tablebase = new Tablebase(directory)) {
+            for (Generated table : generator.done.values()) {
+                int bad = generator.verify(table, tablebase);
+                System.out.println(table.layout.name + ": checked " + VERIFY_SAMPLES + " positions against the move generator, "
+                        + (bad == 0 ? "all agree" : bad + " DO NOT AGREE"));
+                if (bad != 0) {
+                    System.exit(1);
+                }
+            }
+        }
+    }
+
+    /** Generates the table and any it needs that aren't there yet, and writes them to the directory. */
+    void generate(String name, Path directory) throws IOException {
+        Tablebase.Layout layout = new Tablebase.Layout(name);
+        if (done.containsKey(layout.materialKey)) {
+            return;
+        }
+        for (String smaller : smallerTables(layout)) {
+            generate(smaller, directory);
+        }
+
+        long start = System.nanoTime();
+        Generated table = new Generated(layout);
+        int levels = solve(table);
+        table.millis = (System.nanoTime() - start) / 1_000_000;
+        done.put(layout.materialKey, table);
+
+        Path file = directory.resolve(name + Tablebase.SUFFIX);
+        long bytes = write(table, file);
+        long won = 0;
+        long lost = 0;
+        for (int i = 0; i < layout.size; i++) {
+            if (table.whiteToMove[i] >= 0) won++;
+            if (table.blackToMove[i] >= 0) lost++;
+        }
+        System.out.println(name + ": " + layout.size + " positions a side, " + won + " white to move win, " + lost
+                + " black to move lose, longest mate " + table.maxPlies + " plies (mate in " + (table.maxPlies + 1) / 2 + "), "
+                + levels + " levels in " + table.millis + " ms, " + bytes + " bytes in " + file);
+    }
+
+    /** @return the tables a capture or promotion can lead to that are not draws by themselves */
+    private static List<String> smallerTables(Tablebase.Layout layout) {
+        List<String> names = new ArrayList<>();
+        String pieces = layout.name.substring(1, layout.name.length() - 1);
+        for (int i = 0; i < pieces.length(); i++) {
+            String rest = pieces.substring(0, i) + pieces.substring(i + 1);
+            names.add(rest);
+            if (pieces.charAt(i) == 'P') {
+                for (char promoted : new char[] { 'Q', 'R', 'B', 'N' }) {
+                    names.add(rest + promoted);
+                }
+            }
+        }
+        List<String> tables = new ArrayList<>();
+        for (String rest : names) {
+            StringBuilder name = new StringBuilder("K");
+            for (char letter : "QRBNP".toCharArray()) {
+                for (char c : rest.toCharArray()) {
+                    if (c == letter) name.append(c);
+                }
+            }
+            name.append('K');
+            if (!drawn(rest) && !tables.contains(name.toString())) {
+                tables.add(name.toString());
+            }
+        }
+        return tables;
+    }
+
+    private static boolean drawn(String pieces) {
+        return pieces.isEmpty() || pieces.equals("B") || pieces.equals("N");
+    }
+
+    // -- retrograde analysis
+
+    /** @return the number of levels it took */
+    private int solve(Generated table) {
+        Tablebase.Layout layout = table.layout;
+        AtomicIntegerArray movesLeft = new AtomicIntegerArray(layout.size);
+        byte[] longestCapture = new byte[layout.size];
+        AtomicInteger highest = new AtomicInteger();
+
+        parallel(layout.size, index -> initialise(table, index, movesLeft, longestCapture, highest));
+
+        int level = 0;
+        for (; level <= highest.get(); level++) {
+            int n = level;
+            if (n % 2 == 0) {
+                parallel(layout.size, index -> {
+                    if (table.blackToMove[index] == n) {
+                        unmoveWhite(table, index, n, highest);
+                    }
+                });
+            } else {
+                parallel(layout.size, index -> {
+                    if (table.whiteToMove[index] == n) {
+                        unmoveBlack(table, index, n, movesLeft, longestCapture, highest);
+                    }
+                });
+            }
+        }
+
+        int maxPlies = 0;
+        for (int i = 0; i < layout.size; i++) {
+            if (table.whiteToMove[i] < 0) table.whiteToMove[i] = DRAW;
+            if (table.blackToMove[i] < 0) table.blackToMove[i] = DRAW;
+            maxPlies = Math.max(maxPlies, Math.max(table.whiteToMove[i], table.blackToMove[i]));
+        }
+        table.maxPlies = maxPlies;
+        return level;
+    }
+
+    private void parallel(int size, IntConsumer body) {
+        pool.submit(() -> IntStream.range(0, size).parallel().forEach(body)).join();
+    }
+
+    /**
+     * Marks boards that can't happen or are numbered another way as ILLEGAL,
+     * finds the mates and stalemates, counts black's moves and looks up the
+     * moves that leave the table.
+     */
+    private void initialise(Generated table, int index, AtomicIntegerArray movesLeft, byte[] longestCapture, AtomicInteger highest) {
+        Tablebase.Layout layout = table.layout;
+        int wk = layout.whiteKing(index);
+        int bk = layout.blackKing(index);
+        int count = table.kinds.length;
+        int p0 = count > 0 ? layout.piece(index, 0) : -1;
+        int p1 = count > 1 ? layout.piece(index, 1) : -1;
+        table.whiteToMove[index] = ILLEGAL;
+        table.blackToMove[index] = ILLEGAL;
+        if (!valid(table, wk, bk, p0, p1) || layout.index(wk, bk, p0, p1) != index) {
+            return;
+        }
+        long occupied = (1L << wk) | (1L << bk) | bit(p0) | bit(p1);
+        boolean blackInCheck = attacked(table, bk, occupied, wk, p0, p1, -1);
+
+        // white to move: black must not be in check; promotions are looked up
+        if (!blackInCheck) {
+            byte value = UNKNOWN;
+            for (int i = 0; i < count; i++) {
+                int from = i == 0 ? p0 : p1;
+                if (table.kinds[i] != PAWN || Position.rankOf(from) != 7 || (occupied & (1L << (from + 8))) != 0) {
+                    continue;
+                }
+                int other = i == 0 ? p1 : p0;
+                for (int promoted = QUEEN; promoted <= KNIGHT; promoted++) {
+                    int result = lookup(table.kinds, i, promoted, from + 8, other, wk, bk, false);
+                    if (result >= 0 && (value == UNKNOWN || result + 1 < value)) {
+                        value = (byte) (result + 1);
+                    }
+                }
+            }
+            table.whiteToMove[index] = value;
+            if (value != UNKNOWN) {
+                highest.accumulateAndGet(value, Math::max);
+            }
+        }
+
+        // black to move: white is never in check, the kings aren't next to each other
+        int[] children = new int[8];
+        int quiet = 0;
+        int captures = 0;
+        int longest = -1;
+        boolean drawn = false;
+        for (long targets = Attacks.king(bk) & ~Attacks.king(wk); targets != 0; targets &= targets - 1) {
+            int to = Long.numberOfTrailingZeros(targets);
+            int taken = to == p0 ? 0 : to == p1 ? 1 : -1;
+            long after = (occupied & ~(1L << bk)) | (1L << to);
+            if (attacked(table, to, after, wk, p0, p1, taken)) {
+                continue;
+            }
+            if (taken >= 0) {
+                captures++;
+                int result = taken == 0 ? lookup(kind(table, 1), p1, -1, -1, wk, to, true) : lookup(kind(table, 0), p0, -1, -1, wk, to, true);
+                if (result < 0) {
+                    drawn = true;
+                }
+                longest = Math.max(longest, result);
+                continue;
+            }
+            // two moves can lead to mirror images of the same position, which count once
+            int child = layout.index(wk, to, p0, p1);
+            boolean seen = false;
+            for (int j = 0; j < quiet; j++) {
+                seen |= children[j] == child;
+            }
+            if (!seen) {
+                children[quiet++] = child;
+            }
+        }
+        if (drawn) {
+            table.blackToMove[index] = DRAW;
+        } else if (quiet + captures == 0) {
+            table.blackToMove[index] = blackInCheck ? 0 : DRAW;
+        } else if (quiet == 0) {
+            table.blackToMove[index] = (byte) (longest + 1); // every move takes a piece and loses
+            highest.accumulateAndGet(longest + 1, Math::max);
+        } else {
+            table.blackToMove[index] = UNKNOWN;
+            movesLeft.set(index, quiet);
+            longestCapture[index] = (byte) longest;
+        }
+    }
+
+    /**
+     * A black-to-move position lost in n plies: every white-to-move position
+     * one white move before it wins in n + 1, if it didn't win sooner.
+     */
+    private void unmoveWhite(Generated table, int index, int n, AtomicInteger highest) {
+        Tablebase.Layout layout = table.layout;
+        int wk = layout.whiteKing(index);
+        int bk = layout.blackKing(index);
+        int p0 = table.kinds.length > 0 ? layout.piece(index, 0) : -1;
+        int p1 = table.kinds.length > 1 ? layout.piece(index, 1) : -1;
+        long occupied = (1L << wk) | (1L << bk) | bit(p0) | bit(p1);
+
+        for (int mover = -1; mover < table.kinds.length; mover++) {
+            int at = mover < 0 ? wk : mover == 0 ? p0 : p1;
+            long froms;
+            if (mover < 0) {
+                froms = Attacks.king(wk) & ~occupied & ~Attacks.king(bk);
+            } else if (table.kinds[mover] == PAWN) {
+                froms = 0L;
+                if (Position.rankOf(at) >= 3 && (occupied & (1L << (at - 8))) == 0) {
+                    froms |= 1L << (at - 8);
+                    if (Position.rankOf(at) == 4 && (occupied & (1L << (at - 16))) == 0) {
+                        froms |= 1L << (at - 16);
+                    }
+                }
+            } else {
+                froms = attacks(table.kinds[mover], at, occupied) & ~occupied;
+            }
+            for (; froms != 0; froms &= froms - 1) {
+                int from = Long.numberOfTrailingZeros(froms);
+                int fromWk = mover < 0 ? from : wk;
+                int fromP0 = mover == 0 ? from : p0;
+                int fromP1 = mover == 1 ? from : p1;
+                long before = (occupied & ~(1L << at)) | (1L << from);
+                if (attacked(table, bk, before, fromWk, fromP0, fromP1, -1)) {
+                    continue; // black would have been in check with white to move
+                }
+                int parent = layout.index(fromWk, bk, fromP0, fromP1);
+                byte value = table.whiteToMove[parent];
+                if (value == UNKNOWN || value > n + 1) {
+                    table.whiteToMove[parent] = (byte) (n + 1);
+                    highest.accumulateAndGet(n + 1, Math::max);
+                }
+            }
+        }
+    }
+
+    /**
+     * A white-to-move position won in n plies: every black-to-move position
+     * one black king move before it has one move fewer that might hold, and
+     * is lost once none are left.
+     */
+    private void unmoveBlack(Generated table, int index, int n, AtomicIntegerArray movesLeft, byte[] longestCapture,
+            AtomicInteger highest) {
+        Tablebase.Layout layout = table.layout;
+        int wk = layout.whiteKing(index);
+        int bk = layout.blackKing(index);
+        int p0 = table.kinds.length > 0 ? layout.piece(index, 0) : -1;
+        int p1 = table.kinds.length > 1 ? layout.piece(index, 1) : -1;
+        long occupied = (1L << wk) | (1L << bk) | bit(p0) | bit(p1);
+
+        int[] parents = new int[8];
+        int count = 0;
+        for (long froms = Attacks.king(bk) & ~occupied & ~Attacks.king(wk); froms != 0; froms &= froms - 1) {
+            int parent = layout.index(wk, Long.numberOfTrailingZeros(froms), p0, p1);
+            boolean seen = false;
+            for (int j = 0; j < count; j++) {
+                seen |= parents[j] == parent;
+            }
+            if (seen) {
+                continue;
+            }
+            parents[count++] = parent;
+            if (table.blackToMove[parent] == UNKNOWN && movesLeft.decrementAndGet(parent) == 0) {
+                int plies = Math.max(longestCapture[parent], n) + 1;
+                table.blackToMove[parent] = (byte) plies;
+                highest.accumulateAndGet(plies, Math::max);
+            }
+        }
+    }
+
+    /**
+     * Looks a position that has left the table up in the smaller one it is in.
+     *
+     * @param kindA PIECE_ORDER index of one of white's pieces besides the king, -1 for none
+     * @param kindB the same for another
+     * @return plies to mate, or -1 for a draw
+     */
+    private int lookup(int kindA, int squareA, int kindB, int squareB, int wk, int bk, boolean whiteToMove) {
+        if (kindB >= 0 && (kindA < 0 || kindB < kindA)) {
+            return lookup(kindB, squareB, kindA, squareA, wk, bk, whiteToMove);
+        }
+        if (kindA < 0 || kindB < 0 && (kindA == BISHOP || kindA == KNIGHT)) {
+            return -1; // nobody can be mated
+        }
+        int key = (1 << (3 * (Tablebase.PIECE_ORDER[kindA].ordinal() % 6)))
+                + (kindB < 0 ? 0 : 1 << (3 * (Tablebase.PIECE_ORDER[kindB].ordinal() % 6)));
+        Generated smaller = done.get(key);
+        if (smaller == null) {
+            throw new IllegalStateException("a table this one leads to has not been generated");
+        }
+        int index = smaller.layout.index(wk, bk, squareA, squareB);
+        byte value = whiteToMove ? smaller.whiteToMove[index] : smaller.blackToMove[index];
+        return value >= 0 ? value : -1;
+    }
+
+    /**
+     * Looks a promotion up: the pawn moved is replaced by the piece it
+     * becomes, on the square it moved to.
+     */
+    private int lookup(int[] kinds, int pawn, int promoted, int to, int other, int wk, int bk, boolean whiteToMove) {
+        return lookup(promoted, to, kinds.length > 1 ? kinds[1 - pawn] : -1, other, wk, bk, whiteToMove);
+    }
+
+    private static int kind(Generated table, int i) {
+        return i < table.kinds.length ? table.kinds[i] : -1;
+    }
+
+    // -- boards as squares
+
+    /** @return whether the pieces are on different squares, kings apart and no pawn on the first or last rank */
+    private static boolean valid(Generated table, int wk, int bk, int p0, int p1) {
+        long squares = (1L << wk) | (1L << bk) | bit(p0) | bit(p1);
+        if (Long.bitCount(squares) != 2 + table.kinds.length || (Attacks.king(wk) & (1L << bk)) != 0) {
+            return false;
+        }
+        for (int i = 0; i < table.kinds.length; i++) {
+            int rank = Position.rankOf(i == 0 ? p0 : p1);
+            if (table.kinds[i] == PAWN && (rank == 1 || rank == 8)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** @return whether white attacks the square, leaving out the piece numbered skip */
+    private static boolean attacked(Generated table, int square, long occupied, int wk, int p0, int p1, int skip) {
+        if ((Attacks.king(wk) & (1L << square)) != 0) {
+            return true;
+        }
+        for (int i = 0; i < table.kinds.length; i++) {
+            if (i != skip && (attacks(table.kinds[i], i == 0 ? p0 : p1, occupied) & (1L << square)) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static long attacks(int kind, int square, long occupied) {
+        switch (kind) {
+            case QUEEN:  return Attacks.queen(square, occupied);
+            case ROOK:   return Attacks.rook(square, occupied);
+            case BISHOP: return Attacks.bishop(square, occupied);
+            case KNIGHT: return Attacks.knight(square);
+            default:     return Attacks.pawn(Position.WHITE, square);
+        }
+    }
+
+    private static long bit(int square) {
+        return square < 0 ? 0L : 1L << square;
+    }
+
+    // -- output
+
+    /** @return the size of the file */
+    private static long write(Generated table, Path file) throws IOException {
+        int size = table.layout.size;
+        int bits = Math.max(1, 32 - Integer.numberOfLeadingZeros(table.maxPlies + 1));
+        long section = Tablebase.sectionBytes(size, bits);
+        byte[] data = new byte[(int) (Tablebase.HEADER_BYTES + 2 * section)];
+
+        ByteBuffer header = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(0, Tablebase.MAGIC);
+        header.putShort(4, (short) Tablebase.VERSION);
+        header.put(6, (byte) bits);
+        byte[] name = String.format("%-8s", table.layout.name).getBytes(StandardCharsets.US_ASCII);
+        System.arraycopy(name, 0, data, 8, 8);
+        header.putLong(16, size);
+        header.putInt(24, table.maxPlies);
+
+        for (int side = 0; side < 2; side++) {
+            byte[] values = side == 0 ? table.whiteToMove : table.blackToMove;
+            long base = (Tablebase.HEADER_BYTES + side * section) * 8L;
+            for (int i = 0; i < size; i++) {
+                long code = values[i] >= 0 ? values[i] + 1 : 0;
+                long bit = base + (long) i * bits;
+                code <<= bit & 7;
+                for (int at = (int) (bit >>> 3); code != 0; at++, code >>>= 8) {
+                    data[at] |= (byte) code;
+                }
+            }
+        }
+        try (OutputStream out = Files.newOutputStream(file)) {
+            out.write(data);
+        }
+        return data.length;
+    }
+
+    // -- checking
+
+    /**
+     * Sets random positions of the table up on a Position and checks that
+     * what the tablebase says of each is what its legal moves lead to.
+     *
+     * @return how many disagree
+     */
+    int verify(Generated table, Tablebase tablebase) {
+        Tablebase.Layout layout = table.layout;
+        Position position = new Position();
+        int[] moves = new int[MoveGenerator.MAX_MOVES];
+        int bad = 0;
+        for (int checked = 0; checked < VERIFY_SAMPLES; ) {
+            int index = ThreadLocalRandom.current().nextInt(layout.size);
+            boolean whiteToMove = (checked & 1) == 0;
+            int wk = layout.whiteKing(index);
+            int bk = layout.blackKing(index);
+            int p0 = table.kinds.length > 0 ? layout.piece(index, 0) : -1;
+            int p1 = table.kinds.length > 1 ? layout.piece(index, 1) : -1;
+            if (!valid(table, wk, bk, p0, p1)) {
+                continue;
+            }
+            position.clear();
+            position.add(PieceType.WK, wk);
+            position.add(PieceType.BK, bk);
+            for (int i = 0; i < table.kinds.length; i++) {
+                position.add(Tablebase.PIECE_ORDER[table.kinds[i]], i == 0 ? p0 : p1);
+            }
+            if (whiteToMove) {
+                if (position.isInCheck(Position.BLACK)) {
+                    continue;
+                }
+            } else {
+                position.switchSides();
+            }
+            checked++;
+
+            int expected = position.isInCheck(position.sideToMove()) ? -Search.MATE : 0;
+            int count = MoveGenerator.generateLegalMoves(position, moves);
+            for (int i = 0; i < count; i++) {
+                position.makeMove(moves[i]);
+                int child = tablebase.probe(position);
+                position.unmakeMove();
+                // a child's mate in k is a loss in k + 1 here and the other way round
+                int score = child > 0 ? -child + 1 : child < 0 ? -child - 1 : 0;
+                expected = i == 0 ? score : Math.max(expected, score);
+            }
+            int stored = tablebase.probe(position);
+            if (stored != expected) {
+                if (bad < 10) {
+                    System.out.println("  " + Fen.toString(position) + ": table says " + stored + ", moves give " + expected);
+                }
+                bad++;
+            }
+        }
+        return bad;
+    }
+}
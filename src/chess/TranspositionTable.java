@@ -0,0 +1,282 @@
+package chess;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Fixed-size hash table from Zobrist keys (see Position.hash) to what a
+ * search or perft already found out about the position.
+ *
+ * The table lives in direct ByteBuffers outside the Java heap, so a table of
+ * several gigabytes costs the garbage collector nothing. It is cut into
+ * 64-byte buckets, one cache line each, holding four 16-byte entries:
+ *
+ *   long 0  key XOR data
+ *   long 1  data
+ *
+ *   data bits  0-7   depth
+ *   data bits  8-13  generation the entry was written in
+ *   data bits 14-15  bound (BOUND_EXACT, BOUND_LOWER, BOUND_UPPER)
+ *   data bits 16-63  payload: a move and score, or a perft node count
+ *
+ * Storing the key XORed with the data lets threads probe and store with no
+ * locks at all. If two threads write the same entry at once and the longs
+ * end up from different writes, the XOR no longer gives the key back and the
+ * entry simply reads as a miss.
+ *
+ * The first three entries of a bucket are depth-preferred: a new entry only
+ * pushes out the shallowest of them, and entries left over from an older
+ * generation (see newSearch) count as shallower the older they are. Anything
+ * that does not earn one of those places goes in the fourth entry, which is
+ * always replaced.
+ */
+public class TranspositionTable {
+
+    public static final int BOUND_EXACT = 1;
+    public static final int BOUND_LOWER = 2; // the score is at least this
+    public static final int BOUND_UPPER = 3; // the score is at most this
+
+    /** What probe returns when the position is not in the table. Stored data is never 0. */
+    public static final long MISS = 0L;
+
+    private static final int BUCKET_BYTES = 64;
+    private static final int ENTRY_BYTES = 16;
+    private static final int ENTRIES = BUCKET_BYTES / ENTRY_BYTES;
+    private static final int ALWAYS_REPLACE = ENTRIES - 1;
+
+    // a ByteBuffer can't go past 2 GB, so larger tables are split over several
+    private static final int CHUNK_SHIFT = 30;
+    private static final int BUCKETS_PER_CHUNK_SHIFT = CHUNK_SHIFT - 6;
+
+    private static final int GENERATIONS = 64;
+
+    private final ByteBuffer[] chunks;
+    private final long bucketMask;
+    private volatile int generation;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder collisions = new LongAdder();
+    private final LongAdder stores = new LongAdder();
+
+    /**
+     * @param megabytes size of the table, rounded down to a power of two buckets
+     */
+    public TranspositionTable(long megabytes) {
+        long bytes = Math.max(BUCKET_BYTES, megabytes << 20);
+        long buckets = Long.highestOneBit(bytes / BUCKET_BYTES);
+        bucketMask = buckets - 1;
+
+        long chunkBuckets = Math.min(buckets, 1L << BUCKETS_PER_CHUNK_SHIFT);
+        chunks = new ByteBuffer[(int) (buckets / chunkBuckets)];
+        for (int i = 0; i < chunks.length; i++) {
+            int size = (int) (chunkBuckets * BUCKET_BYTES);
+            // a little extra so the buckets can start on a cache line boundary
+            ByteBuffer raw = ByteBuffer.allocateDirect(size + BUCKET_BYTES);
+            chunks[i] = raw.alignedSlice(BUCKET_BYTES).limit(size).slice().order(ByteOrder.nativeOrder());
+        }
+    }
+
+    // data packing
+
+    /** @param bound one of the BOUND_ constants, never 0 */
+    public static long pack(int depth, int bound, long payload) {
+        return (depth & 0xFF) | ((long) bound << 14) | (payload << 16);
+    }
+
+    /** Packs a search entry: the best move (flags included) and its score. */
+    public static long pack(int depth, int bound, int move, int score) {
+        return pack(depth, bound, (move & 0xFFFFFL) | ((long) (score & 0xFFFF) << 20));
+    }
+
+    public static int depth(long data) {
+        return (int) (data & 0xFF);
+    }
+
+    public static int generation(long data) {
+        return (int) ((data >>> 8) & 63);
+    }
+
+    public static int bound(long data) {
+        return (int) ((data >>> 14) & 3);
+    }
+
+    public static long payload(long data) {
+        return data >>> 16;
+    }
+
+    /** @return the packed move (see Move) of a search entry */
+    public static int move(long data) {
+        return (int) (payload(data) & 0xFFFFF);
+    }
+
+    public static int score(long data) {
+        return (short) (payload(data) >>> 20);
+    }
+
+    // probing and storing
+
+    /**
+     * Looks the key up.
+     *
+     * @return the stored data, or MISS
+     */
+    public long probe(long key) {
+        ByteBuffer chunk = chunkFor(key);
+        int bucket = offsetFor(key);
+        for (int i = 0; i < ENTRIES; i++) {
+            int entry = bucket + i * ENTRY_BYTES;
+            long data = chunk.getLong(entry + 8);
+            if (data != MISS && (chunk.getLong(entry) ^ data) == key) {
+                hits.increment();
+                return data;
+            }
+        }
+        misses.increment();
+        return MISS;
+    }
+
+    /** Stores a search result. */
+    public void store(long key, int depth, int bound, int move, int score) {
+        store(key, pack(depth, bound, move, score));
+    }
+
+    /** Stores a perft node count for the given depth. */
+    public void storeCount(long key, int depth, long nodes) {
+        store(key, pack(depth, BOUND_EXACT, nodes));
+    }
+
+    /** Stores data made with pack, the generation is filled in here. */
+    public void store(long key, long data) {
+        int current = generation;
+        data = (data & ~(63L << 8)) | ((long) current << 8);
+        ByteBuffer chunk = chunkFor(key);
+        int bucket = offsetFor(key);
+        int depth = depth(data);
+
+        int victim = -1;
+        int victimWorth = Integer.MAX_VALUE;
+        for (int i = 0; i < ENTRIES; i++) {
+            int entry = bucket + i * ENTRY_BYTES;
+            long old = chunk.getLong(entry + 8);
+            if (old == MISS) {
+                if (i < ALWAYS_REPLACE && victimWorth > Integer.MIN_VALUE) {
+                    victim = i;
+                    victimWorth = Integer.MIN_VALUE; // an empty entry is the best place
+                }
+                continue;
+            }
+            if ((chunk.getLong(entry) ^ old) == key) {
+                // same position: keep the deeper result unless it is from an old search
+                if (depth >= depth(old) || generation(old) != current || bound(data) == BOUND_EXACT) {
+                    write(chunk, entry, key, data);
+                }
+                return;
+            }
+            if (i < ALWAYS_REPLACE) {
+                int age = (current - generation(old)) & (GENERATIONS - 1);
+                int worth = depth(old) - 8 * age;
+                if (worth < victimWorth) {
+                    victim = i;
+                    victimWorth = worth;
+                }
+            }
+        }
+
+        if (victim < 0 || depth < victimWorth) {
+            victim = ALWAYS_REPLACE;
+        }
+        int entry = bucket + victim * ENTRY_BYTES;
+        if (chunk.getLong(entry + 8) != MISS) {
+            collisions.increment(); // a different position loses its place
+        }
+        write(chunk, entry, key, data);
+    }
+
+    private void write(ByteBuffer chunk, int entry, long key, long data) {
+        chunk.putLong(entry, key ^ data);
+        chunk.putLong(entry + 8, data);
+        stores.increment();
+    }
+
+    private ByteBuffer chunkFor(long key) {
+        return chunks[(int) ((key & bucketMask) >>> BUCKETS_PER_CHUNK_SHIFT)];
+    }
+
+    private int offsetFor(long key) {
+        return (int) (key & bucketMask & ((1L << BUCKETS_PER_CHUNK_SHIFT) - 1)) * BUCKET_BYTES;
+    }
+
+    // housekeeping
+
+    /**
+     * Starts a new generation. Entries from earlier ones are kept and can
+     * still be hit, but give up their places more easily.
+     */
+    public void newSearch() {
+        generation = (generation + 1) & (GENERATIONS - 1);
+    }
+
+    /** Empties the table and resets the counters. Not safe while other threads use it. */
+    public void clear() {
+        for (ByteBuffer chunk : chunks) {
+            for (int i = 0; i < chunk.limit(); i += 8) {
+                chunk.putLong(i, 0L);
+            }
+        }
+        generation = 0;
+        hits.reset();
+        misses.reset();
+        collisions.reset();
+        stores.reset();
+    }
+
+    public long capacity() {
+        return (bucketMask + 1) * ENTRIES;
+    }
+
+    public long sizeInBytes() {
+        return (bucketMask + 1) * BUCKET_BYTES;
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    public long misses() {
+        return misses.sum();
+    }
+
+    public long collisions() {
+        return collisions.sum();
+    }
+
+    public long stores() {
+        return stores.sum();
+    }
+
+    /** @return how full the table is in permille, from a sample of the first buckets */
+    public int hashfull() {
+        int sample = (int) Math.min(1000, bucketMask + 1);
+        int used = 0;
+        ByteBuffer chunk = chunks[0];
+        for (int b = 0; b < sample; b++) {
+            for (int i = 0; i < ENTRIES; i++) {
+                long data = chunk.getLong(b * BUCKET_BYTES + i * ENTRY_BYTES + 8);
+                if (data != MISS && generation(data) == generation) {
+                    used++;
+                }
+            }
+        }
+        return used * 1000 / (sample * ENTRIES);
+    }
+
+    public String stats() {
+        long probes = hits() + misses();
+        return "hits " + hits() + ", misses " + misses()
+                + ", hit rate " + (probes == 0 ? 0 : hits() * 100 / probes) + "%"
+                + ", stores " + stores() + ", collisions " + collisions()
+                + ", full " + hashfull() + " permille";
+    }
+}
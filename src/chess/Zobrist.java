@@ -0,0 +1,55 @@
+package chess;
+
+/**
+ * Random 64-bit keys for Zobrist hashing.
+ *
+ * A position's key is the XOR of one key per piece on a square, plus keys for
+ * the side to move, the castling rights and the en passant file. XOR undoes
+ * itself, so a move only has to XOR out what it takes away and XOR in what it
+ * adds, and the key stays up to date in O(1) per move (see Position.hash).
+ *
+ * The keys come from a fixed seed so a key means the same position in every
+ * JVM, which lets keys be stored and compared across runs.
+ */
+public final class Zobrist {
+
+    /** One key per PieceType ordinal per square. */
+    static final long[][] PIECES = new long[12][64];
+    static final long SIDE;                  // XORed in when black is to move
+    static final long[] CASTLING = new long[16];  // indexed by the 4 castling right bits
+    static final long[] EN_PASSANT = new long[8]; // indexed by file
+
+    private static long seed = 0x5DEECE66DL;
+
+    static {
+        for (long[] squares : PIECES) {
+            for (int sq = 0; sq < 64; sq++) {
+                squares[sq] = next();
+            }
+        }
+        SIDE = next();
+        // CASTLING[0] stays 0 so a position without rights needs no key for them
+        long[] single = { next(), next(), next(), next() };
+        for (int rights = 1; rights < 16; rights++) {
+            for (int bit = 0; bit < 4; bit++) {
+                if ((rights & (1 << bit)) != 0) {
+                    CASTLING[rights] ^= single[bit];
+                }
+            }
+        }
+        for (int file = 0; file < 8; file++) {
+            EN_PASSANT[file] = next();
+        }
+    }
+
+    // splitmix64
+    private static long next() {
+        long z = (seed += 0x9E3779B97F4A7C15L);
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    private Zobrist() {
+    }
+}